@@ -14,14 +14,21 @@
 
 package com.stratio.ingestion.sink.jdbc;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.commons.lang.StringUtils;
 import org.apache.flume.Context;
+import org.jooq.tools.jdbc.JDBCUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,25 +54,38 @@ public enum ConnectionManager {
 
     private static final String CONF_DBCP_PREFIX = "dbcp.";
 
-	private BasicDataSource datasource;
+	private static final long RETIRE_POLL_MILLIS = 100L;
+	private static final long RETIRE_TIMEOUT_MILLIS = 60000L;
+
+	private volatile Pool pool;
+
+	/*
+	 * 현재 Pool 생성에 사용된 설정 (재설정 시 변경이 없으면 Pool 유지)
+	 */
+	private Map<String, String> poolProperties;
 
 	/**
 	 * DBCP 초기화
 	 * 반드시 Sink 초기에 먼저 수행할 것
 	 * 
+	 * 재설정 시에는 새 Pool을 먼저 생성/Warm-up 한 다음 교체하고,
+	 * 기존 Pool은 대여 중인 Connection이 모두 반환된 후 종료한다.
+	 * 
 	 * @param context Flume NG Context
 	 */
-	public void initialize( Context context ) {
-		if ( datasource != null ) {
-			try {
-				datasource.close();
-			} catch ( SQLException e ) { // Do-Nothing
-			}
-			datasource = null;
-		}
-
-		datasource = new BasicDataSource();
+	public synchronized void initialize( Context context ) {
+		commit( prepare( context ) );
+	}
 
+	/**
+	 * 새 DBCP Pool 생성/Warm-up (교체하지 않음)
+	 * 이후 반드시 commit() 으로 교체하거나 abort() 로 폐기할 것
+	 * 설정 변경이 없으면 현재 Pool을 그대로 사용하는 PreparedPool을 반환한다
+	 * 
+	 * @param context Flume NG Context
+	 * @return 교체 대기 중인 Pool
+	 */
+	public synchronized PreparedPool prepare( Context context ) {
 		final String driver = context.getString( CONF_DRIVER );
 		final String connectionString = context.getString( CONF_CONNECTION_STRING );
 		if ( Strings.isNullOrEmpty( driver ) || Strings.isNullOrEmpty( connectionString ) ) {
@@ -73,11 +93,28 @@ public enum ConnectionManager {
 		}
 		final String username = context.getString( CONF_USER );
 		final String password = context.getString( CONF_PASSWORD );
+		Map<String, String> jdbcProperties = context.getSubProperties( CONF_DBCP_PREFIX );
+
+		Map<String, String> properties = new HashMap<String, String>( jdbcProperties );
+		properties.put( CONF_DRIVER, driver );
+		properties.put( CONF_CONNECTION_STRING, connectionString );
+		properties.put( CONF_USER, Strings.nullToEmpty( username ) );
+		properties.put( CONF_PASSWORD, Strings.nullToEmpty( password ) );
+		if ( pool != null && properties.equals( poolProperties ) ) {
+			log.info( "DBCP configuration unchanged" );
+			return new PreparedPool( null, properties, true );
+		}
+		final boolean sameDatabase = pool != null
+				&& driver.equals( poolProperties.get( CONF_DRIVER ) )
+				&& connectionString.equals( poolProperties.get( CONF_CONNECTION_STRING ) )
+				&& properties.get( CONF_USER ).equals( poolProperties.get( CONF_USER ) );
+
+		BasicDataSource newDatasource = new BasicDataSource();
 
-		datasource.setDriverClassName( driver );
-		datasource.setUrl( connectionString );
-		datasource.setUsername( username );
-		datasource.setPassword( password );
+		newDatasource.setDriverClassName( driver );
+		newDatasource.setUrl( connectionString );
+		newDatasource.setUsername( username );
+		newDatasource.setPassword( password );
 
 		/*
 		 * DBCP Configuration setup
@@ -85,30 +122,29 @@ public enum ConnectionManager {
 		 *  
 		 * https://commons.apache.org/proper/commons-dbcp/configuration.html
 		 */
-		Map<String, String> jdbcProperties = context.getSubProperties( CONF_DBCP_PREFIX );
 		for ( String key : jdbcProperties.keySet() ) {
 			boolean chkSet = false;
 			try {
 				// dbcp 설정을 가져와서 Datasource 클래스의 setter 와 매칭되는 함수를 찾은 다음 적용한다
 				// 예) maxActive --> setMaxActive 함수를 찾아서 설정 값 적용
-				for ( Method method : datasource.getClass().getDeclaredMethods() ) {
+				for ( Method method : newDatasource.getClass().getDeclaredMethods() ) {
 					if ( method.getParameterTypes().length > 0 && method.getName().equals( "set" + StringUtils.capitalize( key ) ) ) {
 						String value = jdbcProperties.get( key );
 
 						if ( method.getParameterTypes()[0].isAssignableFrom( int.class ) ) {
-							method.invoke( datasource, Integer.parseInt( value ) );
+							method.invoke( newDatasource, Integer.parseInt( value ) );
 							chkSet = true;
 							break;
 						} else if ( method.getParameterTypes()[0].isAssignableFrom( long.class ) ) {
-							method.invoke( datasource, Long.parseLong( value ) );
+							method.invoke( newDatasource, Long.parseLong( value ) );
 							chkSet = true;
 							break;
 						} else if ( method.getParameterTypes()[0].isAssignableFrom( boolean.class ) ) {
-							method.invoke( datasource, Boolean.valueOf( value ) );
+							method.invoke( newDatasource, Boolean.valueOf( value ) );
 							chkSet = true;
 							break;
 						} else if ( method.getParameterTypes()[0].isAssignableFrom( String.class ) ) {
-							method.invoke( datasource, value );
+							method.invoke( newDatasource, value );
 							chkSet = true;
 							break;
 						}
@@ -123,32 +159,231 @@ public enum ConnectionManager {
 			}
 		}
 
-		datasource.setDefaultAutoCommit( false );
+		newDatasource.setDefaultAutoCommit( false );
+
+		// Warm-up: 첫 Connection 대여 시 initialSize 만큼 Connection이 생성된다
+		Connection connection = null;
+		try {
+			connection = newDatasource.getConnection();
+		} catch ( SQLException e ) {
+			if ( pool != null ) {
+				// 재설정 실패 시 기존 Pool 유지
+				closeQuietly( newDatasource );
+				throw new JDBCSinkException( "DBCP reinitialize failed", e );
+			}
+			log.warn( "DBCP warm-up failed: {}", e.getMessage() );
+		} finally {
+			JDBCUtils.safeClose( connection );
+		}
+
+		return new PreparedPool( newDatasource, properties, sameDatabase );
+	}
+
+	/**
+	 * 준비된 Pool로 교체 (기존 Pool은 대여 중인 Connection이 모두 반환된 후 종료)
+	 * 
+	 * @param prepared prepare() 결과
+	 */
+	public synchronized void commit( PreparedPool prepared ) {
+		if ( prepared.datasource == null ) {
+			return;
+		}
+
+		final Pool oldPool = pool;
+		pool = new Pool( prepared.datasource );
+		poolProperties = prepared.properties;
+
+		if ( oldPool != null ) {
+			retire( oldPool );
+		}
 		log.info( "DBCP initialize success" );
 	}
 
+	/**
+	 * 준비된 Pool 폐기 (재설정 실패 시 기존 Pool 유지)
+	 * 
+	 * @param prepared prepare() 결과
+	 */
+	public void abort( PreparedPool prepared ) {
+		if ( prepared.datasource != null ) {
+			closeQuietly( prepared.datasource );
+			log.info( "DBCP reinitialize aborted" );
+		}
+	}
+
+	/**
+	 * 교체된 Pool 종료
+	 * 이 Pool에서 대여 중인 Connection이 모두 반환될 때까지 (최대 RETIRE_TIMEOUT_MILLIS) 기다린 다음 종료한다
+	 * 
+	 * @param oldPool 교체된 Pool
+	 */
+	private void retire( final Pool oldPool ) {
+		// 이후 getConnection()은 교체된 Pool에서 대여하지 않는다
+		oldPool.retired = true;
+
+		Thread retireThread = new Thread( new Runnable() {
+			@Override
+			public void run() {
+				final long deadline = System.currentTimeMillis() + RETIRE_TIMEOUT_MILLIS;
+				try {
+					while ( oldPool.borrowers.get() > 0 && System.currentTimeMillis() < deadline ) {
+						Thread.sleep( RETIRE_POLL_MILLIS );
+					}
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+				if ( oldPool.borrowers.get() > 0 ) {
+					log.warn( "DBCP retired with {} borrowed connections", oldPool.borrowers.get() );
+				}
+				closeQuietly( oldPool.datasource );
+				log.info( "DBCP retired" );
+			}
+		}, "dbcp-retire" );
+		retireThread.setDaemon( true );
+		retireThread.start();
+	}
+
+	private static void closeQuietly( BasicDataSource datasource ) {
+		try {
+			datasource.close();
+		} catch ( SQLException e ) { // Do-Nothing
+		}
+	}
+
 	/**
 	 * @return the datasource
 	 */
 	public BasicDataSource getDatasource() { // TODO 개선 연구 할 것
-		if ( datasource == null ) {
+		final Pool current = pool;
+		if ( current == null ) {
 			throw new JDBCSinkException( "ConnectionManager is not initialized" );
 		}
 
-		return datasource;
+		return current.datasource;
 	}
 
 	/**
 	 * Get JDBC Connection
+	 * 반환된 Connection을 close 할 때까지 해당 Pool은 종료되지 않는다
 	 * 
 	 * @return JDBC Connection
 	 * @exception SQLException
 	 */
 	public Connection getConnection() throws SQLException { // TODO 개선 연구 할 것
-		if ( datasource == null ) {
-			throw new JDBCSinkException( "ConnectionManager is not initialized" );
+		boolean retried = false;
+		while ( true ) {
+			final Pool current = pool;
+			if ( current == null ) {
+				throw new JDBCSinkException( "ConnectionManager is not initialized" );
+			}
+
+			// 대여자 등록 후 교체 여부 확인 (교체된 Pool이면 현재 Pool에서 다시 대여)
+			current.borrowers.incrementAndGet();
+			if ( current.retired ) {
+				current.borrowers.decrementAndGet();
+				continue;
+			}
+
+			try {
+				return borrowed( current, current.datasource.getConnection() );
+			} catch ( SQLException e ) {
+				current.borrowers.decrementAndGet();
+				if ( current.retired && !retried ) {
+					retried = true;
+					continue;
+				}
+				throw e;
+			}
 		}
+	}
 
-		return datasource.getConnection();
+	/**
+	 * close 시 Pool의 대여자 수를 감소시키는 Connection Proxy
+	 */
+	private static Connection borrowed( final Pool owner, final Connection connection ) {
+		return (Connection) Proxy.newProxyInstance( Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+			private final AtomicBoolean closed = new AtomicBoolean();
+
+			@Override
+			public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+				if ( "close".equals( method.getName() ) && method.getParameterTypes().length == 0 ) {
+					if ( !closed.compareAndSet( false, true ) ) {
+						return null;
+					}
+					try {
+						connection.close();
+					} finally {
+						owner.borrowers.decrementAndGet();
+					}
+					return null;
+				}
+				try {
+					return method.invoke( connection, args );
+				} catch ( InvocationTargetException e ) {
+					throw e.getCause();
+				}
+			}
+		} );
+	}
+
+	/**
+	 * 교체 대기 중인 Pool (prepare() 결과)
+	 */
+	public static final class PreparedPool {
+
+		/*
+		 * null 이면 설정 변경 없음 (현재 Pool 사용)
+		 */
+		private final BasicDataSource datasource;
+		private final Map<String, String> properties;
+		private final boolean sameDatabase;
+
+		private PreparedPool( BasicDataSource datasource, Map<String, String> properties, boolean sameDatabase ) {
+			this.datasource = datasource;
+			this.properties = properties;
+			this.sameDatabase = sameDatabase;
+		}
+
+		/**
+		 * @return 설정 변경이 없어 현재 Pool을 그대로 사용하면 true
+		 */
+		public boolean isUnchanged() {
+			return datasource == null;
+		}
+
+		/**
+		 * @return 현재 Pool과 같은 DB/계정이면 true (driver, connectionString, username 동일)
+		 */
+		public boolean isSameDatabase() {
+			return sameDatabase;
+		}
+
+		/**
+		 * 교체 전 매핑 생성 등에 사용할 Connection (교체될 Pool에서 대여)
+		 * 
+		 * @return JDBC Connection
+		 * @exception SQLException
+		 */
+		public Connection getConnection() throws SQLException {
+			if ( datasource == null ) {
+				return ConnectionManager.instance.getConnection();
+			}
+			return datasource.getConnection();
+		}
+	}
+
+	/**
+	 * DBCP Pool 및 대여 중인 Connection 수
+	 */
+	private static final class Pool {
+
+		private final BasicDataSource datasource;
+		private final AtomicInteger borrowers = new AtomicInteger();
+		private volatile boolean retired;
+
+		Pool( BasicDataSource datasource ) {
+			this.datasource = datasource;
+		}
 	}
-}
\ No newline at end of file
+}
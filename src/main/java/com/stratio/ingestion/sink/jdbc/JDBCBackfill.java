@@ -0,0 +1,460 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.JDBCUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * <PRE>
+ * 커스텀: 보관된 이력로그 파일을 Sink의 매핑(MappingQueryGenerator)을 그대로 사용하여 병렬 적재하는 Offline Backfill 도구
+ *
+ * 사용법: java -cp ... com.stratio.ingestion.sink.jdbc.JDBCBackfill &lt;config.properties&gt; &lt;logFile&gt;...
+ *
+ * - config.properties 는 Sink 설정과 동일한 Key를 사용한다. (driver, connectionString, table, sqlDialect, sortByKey, dbcp.* 등)
+ * - 입력 파일을 Memory-map 한 다음 Line 단위로 정렬된 Chunk로 나누어 Fork-Join Pool에서 병렬 처리한다.
+ * - Chunk 하나는 하나의 DB Transaction으로 적재되며, 같은 Transaction 안에서 Checkpoint 테이블에 Chunk가 기록된다.
+ *   따라서 재실행 시 완료된 Chunk는 건너뛰고, 중단된 Chunk는 Rollback 되어 있으므로 중복 적재가 없다.
+ *   (backfill.chunkSize 를 변경하면 Chunk 경계가 달라지므로 주의)
+ * - Checkpoint Key는 파일명, 파일 크기, 파일 앞부분 내용과 Chunk 구간의 SHA-1 이다.
+ *   파일 경로는 Key에 포함되지 않으므로 보관 파일을 이동하거나 Symlink로 열어도 다시 적재되지 않는다.
+ * - 각 Chunk는 backfill.batchSize 단위 Multi-row Insert로 적재하며, sortByKey 사용 시 Chunk 전체를 정렬한 다음 Insert 한다.
+ *   (dbcp.maxActive 는 backfill.parallelism 이상으로 설정할 것)
+ * </PRE>
+ *
+ * @see       MappingQueryGenerator
+ * @see       ConnectionManager
+ */
+public class JDBCBackfill {
+
+    private static final Logger log = LoggerFactory.getLogger(JDBCBackfill.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+    private static final String DEFAULT_CHECKPOINT_TABLE = "JDBC_BACKFILL_CHECKPOINT";
+    private static final String CONF_SQL_DIALECT = "sqlDialect";
+    private static final String CONF_TABLE = "table";
+    private static final String CONF_SORT_BY_KEY = "sortByKey";
+    private static final String CONF_SORT_COLUMNS = "sortColumns";
+    private static final String CONF_BATCH_SIZE = "backfill.batchSize";
+    private static final String CONF_PARALLELISM = "backfill.parallelism";
+    private static final String CONF_CHUNK_SIZE = "backfill.chunkSize";
+    private static final String CONF_CHECKPOINT_TABLE = "backfill.checkpointTable";
+
+    private static final int SCAN_BUFFER_SIZE = 8192;
+    private static final int FILE_PATH_LENGTH = 1000;
+
+    private final SQLDialect sqlDialect;
+    private final int batchsize;
+    private final int parallelism;
+    private final int chunkSize;
+    private final MappingQueryGenerator queryGenerator;
+
+    /*
+     * Checkpoint 테이블: 데이터와 같은 Transaction으로 완료된 Chunk를 기록
+     */
+    private final Table<Record> checkpointTable;
+    private final Field<String> checkpointChunkKey = DSL.fieldByName(String.class, "CHUNK_KEY");
+    private final Field<String> checkpointFilePath = DSL.fieldByName(String.class, "FILE_PATH");
+    private final Field<Long> checkpointStartOffset = DSL.fieldByName(Long.class, "START_OFFSET");
+    private final Field<Long> checkpointEndOffset = DSL.fieldByName(Long.class, "END_OFFSET");
+    private final Field<Long> checkpointRowCount = DSL.fieldByName(Long.class, "ROW_COUNT");
+
+	/**
+	 * Desc : Constructor of JDBCBackfill.java class
+	 *
+	 * @param context Sink 설정과 동일한 Context
+	 */
+    public JDBCBackfill(Context context) {
+    	// DBCP 초기화
+    	ConnectionManager.instance.initialize( context );
+
+        this.batchsize = context.getInteger(CONF_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        this.parallelism = context.getInteger(CONF_PARALLELISM, Runtime.getRuntime().availableProcessors());
+        this.chunkSize = context.getInteger(CONF_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+        if (this.batchsize <= 0 || this.parallelism <= 0 || this.chunkSize <= 0) {
+            throw new JDBCSinkException(CONF_BATCH_SIZE + ", " + CONF_PARALLELISM + " and " + CONF_CHUNK_SIZE + " must be positive");
+        }
+        this.sqlDialect = SQLDialect.valueOf(context.getString(CONF_SQL_DIALECT).toUpperCase(Locale.ENGLISH));
+        this.checkpointTable = DSL.tableByName(context.getString(CONF_CHECKPOINT_TABLE, DEFAULT_CHECKPOINT_TABLE));
+
+        final String sortColumns = context.getString(CONF_SORT_COLUMNS);
+        Connection connection = null;
+        try {
+        	// Table 정보 매핑 (1회)
+        	connection = ConnectionManager.instance.getConnection();
+        	final DSLContext create = DSL.using(connection, sqlDialect);
+        	this.queryGenerator = new MappingQueryGenerator(create, context.getString(CONF_TABLE), context.getBoolean(CONF_SORT_BY_KEY, false),
+        			Strings.isNullOrEmpty(sortColumns) ? null : Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(sortColumns)));
+
+        	// Checkpoint 테이블 생성 (Key는 고정 길이 SHA-1, 경로는 참고용 컬럼)
+        	create.execute("CREATE TABLE IF NOT EXISTS " + create.render(this.checkpointTable)
+        			+ " (CHUNK_KEY CHAR(40) NOT NULL PRIMARY KEY, FILE_PATH VARCHAR(" + FILE_PATH_LENGTH + ") NOT NULL,"
+        			+ " START_OFFSET BIGINT NOT NULL, END_OFFSET BIGINT NOT NULL, ROW_COUNT BIGINT NOT NULL, LOADED_AT TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+        	connection.commit();
+        } catch (SQLException ex) {
+            throw new JDBCSinkException(ex);
+        } finally {
+        	JDBCUtils.safeClose( connection );
+        }
+    }
+
+    /**
+     * 입력 파일 전체 적재
+     *
+     * @param files 입력 파일 목록
+     * @return 모든 Chunk가 성공하면 true (실패한 Chunk는 재실행 시 다시 처리)
+     */
+    public boolean run(List<File> files) throws IOException, InterruptedException {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (File file : files) {
+            chunks.addAll(split(file, this.chunkSize));
+        }
+
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        for (final Chunk chunk : pending(chunks, loadCheckpoint())) {
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return load(chunk);
+                }
+            });
+        }
+        log.info("Backfill {} of {} chunks with parallelism {}", tasks.size(), chunks.size(), this.parallelism);
+
+        boolean success = true;
+        long rows = 0;
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            for (Future<Long> result : pool.invokeAll(tasks)) {
+                try {
+                    rows += result.get();
+                } catch (ExecutionException ex) {
+                    success = false;
+                    log.error("Chunk failed", ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        log.info("Backfill finished: {} rows, {}", rows, success ? "success" : "some chunks failed");
+        return success;
+    }
+
+    /**
+     * 파일을 chunkSize 단위로 나누되 경계를 다음 개행 뒤로 맞춘다
+     * (chunkSize 보다 긴 Line은 하나의 Chunk에 포함된다)
+     *
+     * @param file 입력 파일
+     * @param chunkSize Chunk 크기(byte)
+     * @return Chunk 목록
+     */
+    static List<Chunk> split(File file, int chunkSize) throws IOException {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            final ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+
+            // 파일 식별값: 파일명 + 크기 + 앞부분 내용 (경로 무관)
+            int headLength = 0;
+            while (headLength < SCAN_BUFFER_SIZE && headLength < size) {
+                int read = channel.read(scan, headLength);
+                if (read <= 0) {
+                    break;
+                }
+                headLength += read;
+            }
+            final HashCode fileId = Hashing.sha1().newHasher()
+                    .putBytes(file.getName().getBytes(Charsets.UTF_8))
+                    .putLong(size)
+                    .putBytes(scan.array(), 0, headLength)
+                    .hash();
+
+            long start = 0;
+            while (start < size) {
+                long end = Math.min(start + chunkSize, size);
+                // 경계 직전 바이트부터 개행 탐색 (경계가 이미 Line 시작이면 그대로 사용)
+                boolean aligned = end == size;
+                long position = end - 1;
+                while (!aligned) {
+                    scan.clear();
+                    int read = channel.read(scan, position);
+                    if (read <= 0) {
+                        end = size;
+                        break;
+                    }
+                    for (int i = 0; i < read; i++) {
+                        if (scan.get(i) == '\n') {
+                            end = position + i + 1;
+                            aligned = true;
+                            break;
+                        }
+                    }
+                    if (!aligned) {
+                        position += read;
+                    }
+                }
+                chunks.add(new Chunk(file, fileId, start, end));
+                start = end;
+            }
+        } finally {
+            raf.close();
+        }
+        return chunks;
+    }
+
+    /**
+     * Chunk 내용을 Line 단위 Event로 변환 (CR 제거, 빈 Line 무시)
+     *
+     * @param buffer Chunk 내용
+     * @return Event 목록
+     */
+    static List<Event> readEvents(ByteBuffer buffer) {
+        List<Event> events = new ArrayList<Event>();
+        final int length = buffer.limit();
+        int lineStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && buffer.get(i) != '\n') {
+                continue;
+            }
+            int lineEnd = i;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                byte[] body = new byte[lineEnd - lineStart];
+                ByteBuffer line = buffer.duplicate();
+                line.position(lineStart);
+                line.get(body);
+                events.add(EventBuilder.withBody(body));
+            }
+            lineStart = i + 1;
+        }
+        return events;
+    }
+
+    /**
+     * @param chunks 전체 Chunk
+     * @param completed Checkpoint에 기록된 Chunk Key
+     * @return 아직 적재되지 않은 Chunk
+     */
+    static List<Chunk> pending(List<Chunk> chunks, Set<String> completed) {
+        List<Chunk> pending = new ArrayList<Chunk>();
+        for (Chunk chunk : chunks) {
+            if (completed.contains(chunk.key())) {
+                log.info("Skipping completed chunk: {}", chunk);
+            } else {
+                pending.add(chunk);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Chunk 하나를 하나의 DB Transaction으로 적재 (Checkpoint 기록 포함)
+     */
+    private long load(Chunk chunk) throws Exception {
+        Connection connection = null;
+        long rows = 0;
+        RandomAccessFile raf = new RandomAccessFile(chunk.file, "r");
+        try {
+            final List<Event> events = readEvents(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start));
+            connection = ConnectionManager.instance.getConnection();
+            final DSLContext create = DSL.using(connection, sqlDialect);
+
+            if (this.queryGenerator.isSortByKey()) {
+                // Chunk 전체를 정렬한 다음 Insert
+                List<Map<Field<?>, Object>> mapped = new ArrayList<Map<Field<?>, Object>>(events.size());
+                for (int from = 0; from < events.size(); from += this.batchsize) {
+                    mapped.addAll(this.queryGenerator.mapEvents(events.subList(from, Math.min(from + this.batchsize, events.size()))));
+                }
+                this.queryGenerator.sortRows(mapped);
+                for (int from = 0; from < mapped.size(); from += this.batchsize) {
+                    rows += insert(create, mapped.subList(from, Math.min(from + this.batchsize, mapped.size())));
+                }
+            } else {
+                for (int from = 0; from < events.size(); from += this.batchsize) {
+                    rows += insert(create, this.queryGenerator.mapEvents(events.subList(from, Math.min(from + this.batchsize, events.size()))));
+                }
+            }
+
+            create.insertInto(this.checkpointTable, this.checkpointChunkKey, this.checkpointFilePath,
+                    this.checkpointStartOffset, this.checkpointEndOffset, this.checkpointRowCount)
+                    .values(chunk.key(), chunk.path(FILE_PATH_LENGTH), chunk.start, chunk.end, rows)
+                    .execute();
+            connection.commit();
+            log.info("Loaded {} rows from {}", rows, chunk);
+            return rows;
+        } catch (Exception ex) {
+            try {
+                if (connection != null) {
+                    connection.rollback();
+                }
+            } catch (Exception e) {
+                log.error("Exception on rollback", e);
+            }
+            throw new JDBCSinkException("Chunk failed: " + chunk, ex);
+        } finally {
+            JDBCUtils.safeClose( connection );
+            raf.close();
+        }
+    }
+
+    private long insert(DSLContext create, List<Map<Field<?>, Object>> rows) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        if (!this.queryGenerator.executeMapped(create, rows)) {
+            throw new JDBCSinkException("Query failed");
+        }
+        return rows.size();
+    }
+
+    private Set<String> loadCheckpoint() {
+        Connection connection = null;
+        try {
+            connection = ConnectionManager.instance.getConnection();
+            final DSLContext create = DSL.using(connection, sqlDialect);
+            Set<String> completed = new HashSet<String>(create.select(this.checkpointChunkKey).from(this.checkpointTable).fetch(this.checkpointChunkKey));
+            connection.commit();
+            log.info("{} completed chunks in checkpoint {}", completed.size(), this.checkpointTable.getName());
+            return completed;
+        } catch (SQLException ex) {
+            throw new JDBCSinkException(ex);
+        } finally {
+            JDBCUtils.safeClose( connection );
+        }
+    }
+
+    /**
+     * 입력 파일의 Line 단위로 정렬된 구간 [start, end)
+     */
+    static class Chunk {
+
+        private final File file;
+        private final HashCode fileId;
+        private final long start;
+        private final long end;
+
+        Chunk(File file, HashCode fileId, long start, long end) {
+            this.file = file;
+            this.fileId = fileId;
+            this.start = start;
+            this.end = end;
+        }
+
+        long getStart() {
+            return start;
+        }
+
+        long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return Checkpoint Key (SHA-1 hex 40자)
+         */
+        String key() {
+            return Hashing.sha1().newHasher()
+                    .putBytes(fileId.asBytes())
+                    .putLong(start)
+                    .putLong(end)
+                    .hash().toString();
+        }
+
+        /**
+         * @return Checkpoint 기록용 경로 (컬럼 길이를 넘으면 뒷부분)
+         */
+        String path(int maxLength) {
+            final String path = file.getAbsolutePath();
+            return path.length() <= maxLength ? path : path.substring(path.length() - maxLength);
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + "[" + start + ", " + end + ")";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: " + JDBCBackfill.class.getName() + " <config.properties> <logFile>...");
+            System.exit(2);
+        }
+
+        Properties properties = new Properties();
+        FileInputStream in = new FileInputStream(args[0]);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (String key : properties.stringPropertyNames()) {
+            parameters.put(key, properties.getProperty(key).trim());
+        }
+
+        List<File> files = new ArrayList<File>();
+        for (int i = 1; i < args.length; i++) {
+            files.add(new File(args[i]));
+        }
+
+        JDBCBackfill backfill = new JDBCBackfill(new Context(parameters));
+        final boolean success = backfill.run(files);
+        System.exit(success ? 0 : 1);
+    }
+
+}
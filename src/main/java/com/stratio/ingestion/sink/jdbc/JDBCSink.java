@@ -21,6 +21,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.flume.Channel;
 import org.apache.flume.Context;
@@ -29,14 +38,21 @@ import org.apache.flume.EventDeliveryException;
 import org.apache.flume.Transaction;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.instrumentation.SinkCounter;
+import org.apache.flume.lifecycle.LifecycleState;
 import org.apache.flume.sink.AbstractSink;
 import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
 import org.jooq.tools.jdbc.JDBCUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Saves Flume events to any database with a JDBC driver. It can operate either
  * with automatic headers-to-tables mapping or with custom SQL queries.
@@ -66,6 +82,28 @@ import org.slf4j.LoggerFactory;
  *      <tt>header.yourHeaderName</tt> and then the SQL type.</li>
  * <li><tt>batchSize</tt> <em>(integer)</em>: Number of events that will be grouped
  *      in the same query and transaction. Defaults to <tt>20</tt>.</li>
+ * <li><tt>doubleBuffer</tt> <em>(boolean)</em>: While a batch is being written and
+ *      committed on the database, the next batch is taken from its own channel
+ *      transaction and parsed. Each channel transaction is committed only after its
+ *      own database commit, and batches reach the database in the order they were
+ *      started. With <tt>sql</tt> the query is built inside the database section, so only
+ *      the channel take overlaps. Defaults to <tt>false</tt>.</li>
+ * <li><tt>sortByKey</tt> <em>(boolean)</em>: Sort each mapped batch by the table
+ *      primary key before binding, so that InnoDB clustered index pages are filled in
+ *      order. Defaults to <tt>false</tt>. <em>Only used for automatic mapping.</em></li>
+ * <li><tt>sortColumns</tt> <em>(string)</em>: Comma separated columns used instead of
+ *      the primary key when <tt>sortByKey</tt> is enabled (e.g. <tt>SEQ_ID</tt>).</li>
+ * <li><tt>staging.tables</tt> <em>(string)</em>: Comma separated staging tables with
+ *      the same columns as <tt>table</tt> and no secondary indexes. If specified, batches
+ *      are inserted into the active staging table and a background merger moves them to
+ *      <tt>table</tt> with <tt>INSERT ... SELECT</tt>, rotating the staging tables when
+ *      more than one is given. <em>Only used for automatic mapping.</em></li>
+ * <li><tt>staging.mergeIntervalMillis</tt> <em>(long)</em>: Delay between staging merges.
+ *      Defaults to <tt>1000</tt>.</li>
+ * <li><tt>staging.maxMergeFailures</tt> <em>(integer)</em>: The sink backs off, leaving
+ *      events in the channel, after this many consecutive merge failures. Defaults to <tt>3</tt>.</li>
+ * <li><tt>staging.maxRows</tt> <em>(long)</em>: The sink backs off while this many rows
+ *      are waiting in the staging tables. Defaults to <tt>1000000</tt>.</li>
  * </ul></p>
  * ================================================================================================
  * 커스텀: JDBC Connection 생성 방식을 단일 구성에서 Datasource 기반 Connection Pool로 변경
@@ -80,11 +118,51 @@ public class JDBCSink extends AbstractSink implements Configurable {
     private static final String CONF_TABLE = "table";
     private static final String CONF_BATCH_SIZE = "batchSize";
     private static final String CONF_SQL = "sql";
+    private static final String CONF_DOUBLE_BUFFER = "doubleBuffer";
+    private static final String CONF_SORT_BY_KEY = "sortByKey";
+    private static final String CONF_SORT_COLUMNS = "sortColumns";
+    private static final String CONF_STAGING_TABLES = "staging.tables";
+    private static final String CONF_STAGING_MERGE_INTERVAL = "staging.mergeIntervalMillis";
+    private static final String CONF_STAGING_MAX_MERGE_FAILURES = "staging.maxMergeFailures";
+    private static final String CONF_STAGING_MAX_ROWS = "staging.maxRows";
+
+    private static final long DEFAULT_STAGING_MERGE_INTERVAL = 1000L;
+    private static final int DEFAULT_STAGING_MAX_MERGE_FAILURES = 3;
+    private static final long DEFAULT_STAGING_MAX_ROWS = 1000000L;
+
+    private static final long STOP_TIMEOUT_SECONDS = 30L;
 
-    private SQLDialect sqlDialect;
     private SinkCounter sinkCounter;
-    private int batchsize;
-    private QueryGenerator queryGenerator;
+    private JDBCSinkCounter jdbcSinkCounter;
+    private volatile boolean doubleBuffer;
+
+    /*
+     * 재설정(Hot reconfiguration) 시 새 매핑을 기존 매핑과 별도로 생성한 다음 한번에 교체한다.
+     * 진행 중인 배치는 시작 시점의 WriteConfig를 끝까지 사용한다.
+     */
+    private volatile WriteConfig writeConfig;
+
+    /*
+     * Double buffering: 배치별 Flume Transaction은 Thread에 귀속되므로 두 개의 작업 Thread가 번갈아 배치를 처리한다.
+     * DB 처리 구간(executeQuery ~ commit)은 writeLock으로 직렬화하고, 그 동안 다른 Thread는 다음 배치를 Take/파싱한다.
+     * (sql 설정 시에는 쿼리 생성이 DB 처리 구간 안에서 이루어지므로 Take만 겹친다)
+     */
+    private final Object writeLock = new Object();
+    private ExecutorService batchExecutor;
+    private Future<Status> pendingBatch;
+
+    /*
+     * 배치 순서 보장: writeLock 모니터는 공정하지 않으므로 배치 시작 순서대로 번호를 부여하고
+     * DB 처리 구간은 번호 순으로 진입한다 (issuedTicket은 process() Thread 전용, servingTicket은 writeLock으로 보호)
+     */
+    private long issuedTicket;
+    private long servingTicket;
+
+    /*
+     * Staging 모드: Staging 테이블 Insert 후 Background Merge (WriteConfig.stagingMerger)
+     */
+    private long stagingMergeInterval;
+    private ScheduledExecutorService mergeExecutor;
 
     /**
      * Desc : Constructor of JDBCSink.java class
@@ -93,66 +171,293 @@ public class JDBCSink extends AbstractSink implements Configurable {
         super();
     }
 
+    /**
+     * 설정을 모두 검증한 다음 새 Pool을 준비하고, 준비된 Pool로 매핑을 생성한 후 Pool과 매핑을 함께 교체한다.
+     * 도중에 실패하면 준비된 Pool을 폐기하고 기존 Pool과 매핑을 그대로 사용한다. (부분 재설정 없음)
+     */
     @SuppressWarnings( "deprecation" )
 	@Override
-    public void configure(Context context) {
-    	// DBCP 초기화
-    	ConnectionManager.instance.initialize( context );
+    public synchronized void configure(Context context) {
+        // 설정 검증 (DB 접근 전)
+        final int batchsize = context.getInteger(CONF_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        final SQLDialect sqlDialect = SQLDialect.valueOf(context.getString(CONF_SQL_DIALECT).toUpperCase(Locale.ENGLISH));
 
-        this.batchsize = context.getInteger(CONF_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        final boolean sortByKey = context.getBoolean(CONF_SORT_BY_KEY, false);
+        final String sortColumns = context.getString(CONF_SORT_COLUMNS);
 
-        this.sqlDialect = SQLDialect.valueOf(context.getString(CONF_SQL_DIALECT).toUpperCase(Locale.ENGLISH));
+        final String stagingTables = context.getString(CONF_STAGING_TABLES);
+        final long stagingMergeInterval = context.getLong(CONF_STAGING_MERGE_INTERVAL, DEFAULT_STAGING_MERGE_INTERVAL);
+        if (stagingMergeInterval <= 0) {
+            throw new JDBCSinkException(CONF_STAGING_MERGE_INTERVAL + " must be positive: " + stagingMergeInterval);
+        }
+        final int stagingMaxMergeFailures = context.getInteger(CONF_STAGING_MAX_MERGE_FAILURES, DEFAULT_STAGING_MAX_MERGE_FAILURES);
+        if (stagingMaxMergeFailures <= 0) {
+            throw new JDBCSinkException(CONF_STAGING_MAX_MERGE_FAILURES + " must be positive: " + stagingMaxMergeFailures);
+        }
+        final long stagingMaxRows = context.getLong(CONF_STAGING_MAX_ROWS, DEFAULT_STAGING_MAX_ROWS);
+        if (stagingMaxRows <= 0) {
+            throw new JDBCSinkException(CONF_STAGING_MAX_ROWS + " must be positive: " + stagingMaxRows);
+        }
 
         final String sql = context.getString(CONF_SQL);
-        if (sql == null) {
-        	Connection connection = null;
-            try {
-            	// Table 정보 매핑
-            	connection = ConnectionManager.instance.getConnection();
-            	final DSLContext create = DSL.using(connection, sqlDialect);
-            	this.queryGenerator = new MappingQueryGenerator(create, context.getString(CONF_TABLE));
-            } catch (SQLException ex) {
-                throw new JDBCSinkException(ex);
-            } finally {
-            	JDBCUtils.safeClose( connection );
+        if (sql != null) {
+            if (!Strings.isNullOrEmpty(stagingTables)) {
+                throw new JDBCSinkException(CONF_STAGING_TABLES + " is only used for automatic mapping");
             }
-        } else {
-            this.queryGenerator = new TemplateQueryGenerator(sqlDialect, sql);
+            if (sortByKey) {
+                throw new JDBCSinkException(CONF_SORT_BY_KEY + " is only used for automatic mapping");
+            }
+        }
+
+        if (this.sinkCounter == null) {
+            this.sinkCounter = new SinkCounter(this.getName());
+            this.jdbcSinkCounter = new JDBCSinkCounter(this.getName(), sortByKey);
         }
 
-        this.sinkCounter = new SinkCounter(this.getName());
+    	// DBCP 준비 (교체는 매핑 생성 성공 후)
+        final ConnectionManager.PreparedPool preparedPool = ConnectionManager.instance.prepare( context );
+        boolean committed = false;
+        try {
+            final QueryGenerator queryGenerator;
+            StagingTableMerger stagingMerger = null;
+            if (sql == null) {
+            	Connection connection = null;
+                try {
+                	// Table 정보 매핑 (새 Pool 기준)
+                	connection = preparedPool.getConnection();
+                	final DSLContext create = DSL.using(connection, sqlDialect);
+                	final MappingQueryGenerator mappingQueryGenerator = new MappingQueryGenerator(create, context.getString(CONF_TABLE), sortByKey,
+                			Strings.isNullOrEmpty(sortColumns) ? null : Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(sortColumns)));
+                	queryGenerator = mappingQueryGenerator;
+
+                	// Staging 테이블 매핑 (같은 DB이면 이전 Merger와 Merge 대기 Row 수 집계 공유)
+                	if (!Strings.isNullOrEmpty(stagingTables)) {
+                		final StagingTableMerger previousMerger = this.writeConfig != null && preparedPool.isSameDatabase()
+                				? this.writeConfig.stagingMerger : null;
+                		stagingMerger = new StagingTableMerger(create, sqlDialect, mappingQueryGenerator.getTable(),
+                				Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(stagingTables)), this.writeLock,
+                				this.jdbcSinkCounter, stagingMaxMergeFailures, stagingMaxRows, previousMerger);
+                	}
+                } catch (SQLException ex) {
+                    throw new JDBCSinkException(ex);
+                } finally {
+                	JDBCUtils.safeClose( connection );
+                }
+            } else {
+                queryGenerator = new TemplateQueryGenerator(sqlDialect, sql);
+            }
+
+            // Pool 및 매핑을 함께 교체
+            ConnectionManager.instance.commit( preparedPool );
+            committed = true;
+            this.stagingMergeInterval = stagingMergeInterval;
+            swapWriteConfig(new WriteConfig(sqlDialect, batchsize, queryGenerator, stagingMerger));
+            this.jdbcSinkCounter.setSortByKey(sortByKey);
+            this.doubleBuffer = context.getBoolean(CONF_DOUBLE_BUFFER, false);
+        } finally {
+            if (!committed) {
+                ConnectionManager.instance.abort( preparedPool );
+            }
+        }
+    }
+
+    /**
+     * 배치 처리 설정 교체
+     * 이전 설정의 Staging 테이블은 이전 설정으로 시작한 배치가 모두 끝난 다음 Merge 한다
+     *
+     * @param config 새 설정
+     */
+    synchronized void swapWriteConfig(WriteConfig config) {
+        final WriteConfig previous = this.writeConfig;
+        this.writeConfig = config;
+        if (previous == null) {
+            return;
+        }
+
+        log.info("JDBCSink reconfigured");
+        if (previous.stagingMerger != null && previous.stagingMerger != config.stagingMerger) {
+            previous.stagingMerger.retire(config.stagingMerger);
+        }
+        if (this.getLifecycleState() == LifecycleState.START) {
+            if (config.stagingMerger != null && this.mergeExecutor == null) {
+                scheduleMerge();
+            }
+            // 이전 Staging 테이블에 남은 Row Merge (Merge Thread에서 순차 처리)
+            final StagingTableMerger retired = previous.stagingMerger;
+            if (retired != null && retired != config.stagingMerger && this.mergeExecutor != null) {
+                this.mergeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            previous.awaitIdle();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            log.warn("Staging merge of previous configuration interrupted, rows remain in staging tables");
+                            return;
+                        }
+                        retired.mergeAll();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @return 현재 배치 처리 설정
+     */
+    WriteConfig getWriteConfig() {
+        return this.writeConfig;
     }
 
     @Override
     public Status process() throws EventDeliveryException {
+        if (!this.doubleBuffer) {
+            if (this.pendingBatch != null) {
+                // Double buffering 해제 시 진행 중인 배치 완료 대기
+                final Future<Status> previous = this.pendingBatch;
+                this.pendingBatch = null;
+                awaitBatch(previous);
+            }
+            return processBatch(this.issuedTicket++);
+        }
+
+        if (this.batchExecutor == null) {
+            this.batchExecutor = Executors.newFixedThreadPool(2,
+                    new ThreadFactoryBuilder().setNameFormat(this.getName() + "-batch-%d").setDaemon(true).build());
+        }
+
+        // 다음 배치를 먼저 제출한 다음 이전 배치의 결과를 기다린다 (최대 2개 배치 동시 진행)
+        final Future<Status> previous = this.pendingBatch;
+        final long ticket = this.issuedTicket++;
+        this.pendingBatch = this.batchExecutor.submit(new Callable<Status>() {
+            @Override
+            public Status call() throws Exception {
+                return processBatch(ticket);
+            }
+        });
+        if (previous == null) {
+            return Status.READY;
+        }
+        return awaitBatch(previous);
+    }
+
+    private Status processBatch(long ticket) {
+        try {
+            final WriteConfig config = acquireWriteConfig();
+            try {
+                return processBatch(config, ticket);
+            } finally {
+                config.inFlight.decrementAndGet();
+            }
+        } finally {
+            // DB 처리 구간에 진입하지 않은 배치(Empty, Backoff, 실패)도 순서대로 차례를 넘긴다
+            synchronized (this.writeLock) {
+                awaitTurn(ticket);
+                finishTurn(ticket);
+            }
+        }
+    }
+
+    /**
+     * 이전 배치가 DB 처리를 마칠 때까지 대기 (writeLock 안에서 호출할 것)
+     */
+    private void awaitTurn(long ticket) {
+        boolean interrupted = false;
+        while (this.servingTicket < ticket) {
+            try {
+                this.writeLock.wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 다음 배치에 차례를 넘김 (writeLock 안에서 호출할 것)
+     */
+    private void finishTurn(long ticket) {
+        if (this.servingTicket == ticket) {
+            this.servingTicket = ticket + 1;
+            this.writeLock.notifyAll();
+        }
+    }
+
+    /**
+     * 현재 설정을 배치 처리 중으로 등록 (교체와 경합 시 새 설정으로 다시 등록)
+     */
+    private WriteConfig acquireWriteConfig() {
+        while (true) {
+            final WriteConfig config = this.writeConfig;
+            config.inFlight.incrementAndGet();
+            if (config == this.writeConfig) {
+                return config;
+            }
+            config.inFlight.decrementAndGet();
+        }
+    }
+
+    private Status processBatch(final WriteConfig config, final long ticket) {
         Status status = Status.BACKOFF;
+        if (config.stagingMerger != null && config.stagingMerger.isBackpressured()) {
+            // Merge 지연/실패 시 Event는 Channel에 남겨 둔다
+            log.warn("Staging merge is behind, backing off");
+            return Status.BACKOFF;
+        }
         Transaction transaction = this.getChannel().getTransaction();
         Connection connection = null;
 
         try {
         	transaction.begin();
 
-        	connection = ConnectionManager.instance.getConnection();
-        	final DSLContext create = DSL.using(connection, sqlDialect);
-
-        	List<Event> eventList = this.takeEventsFromChannel( this.getChannel(), this.batchsize);
+        	List<Event> eventList = this.takeEventsFromChannel( this.getChannel(), config.batchsize);
             status = Status.READY;
             if (!eventList.isEmpty()) {
-                if (eventList.size() == this.batchsize) {
+                if (eventList.size() == config.batchsize) {
                     this.sinkCounter.incrementBatchCompleteCount();
                 } else {
                     this.sinkCounter.incrementBatchUnderflowCount();
                 }
 
-                final boolean success = this.queryGenerator.executeQuery(create, eventList);
-
-                if (!success) {
-                    throw new JDBCSinkException("Query failed");
+                // 파싱은 DB 처리 구간 밖에서 수행
+                List<Map<Field<?>, Object>> rows = null;
+                if (config.queryGenerator instanceof MappingQueryGenerator) {
+                    final long mapStart = System.nanoTime();
+                    rows = ((MappingQueryGenerator) config.queryGenerator).mapEvents(eventList);
+                    this.jdbcSinkCounter.addToMapTimeNanos(System.nanoTime() - mapStart);
                 }
 
-                connection.commit();
+                synchronized (this.writeLock) {
+                    awaitTurn(ticket);
+                    final long insertStart = System.nanoTime();
+                    connection = ConnectionManager.instance.getConnection();
+                    final DSLContext create = DSL.using(connection, config.sqlDialect);
+
+                    final boolean success;
+                    if (rows == null) {
+                        success = config.queryGenerator.executeQuery(create, eventList);
+                    } else if (config.stagingMerger != null) {
+                        success = ((MappingQueryGenerator) config.queryGenerator).executeMapped(create, config.stagingMerger.getActiveTable(), rows);
+                    } else {
+                        success = ((MappingQueryGenerator) config.queryGenerator).executeMapped(create, rows);
+                    }
+
+                    if (!success) {
+                        throw new JDBCSinkException("Query failed");
+                    }
+
+                    connection.commit();
+                    if (rows != null && config.stagingMerger != null) {
+                        config.stagingMerger.addStagedRows(rows.size());
+                    }
+                    this.jdbcSinkCounter.addToInsertTimeNanos(System.nanoTime() - insertStart);
+                    finishTurn(ticket);
+                }
 
                 this.sinkCounter.addToEventDrainSuccessCount(eventList.size());
+                this.jdbcSinkCounter.addToRowInsertCount(rows != null ? rows.size() : eventList.size());
             } else {
                 this.sinkCounter.incrementBatchEmptyCount();
             }
@@ -162,7 +467,9 @@ public class JDBCSink extends AbstractSink implements Configurable {
         } catch (Throwable t) {
             log.error("Exception during process", t);
             try {
-            	connection.rollback();
+            	if (connection != null) {
+            		connection.rollback();
+            	}
             } catch (Exception ex) {
                 log.error("Exception on rollback", ex);
             } finally {
@@ -180,15 +487,88 @@ public class JDBCSink extends AbstractSink implements Configurable {
         return status;
     }
 
+    private Status awaitBatch(Future<Status> batch) {
+        try {
+            return batch.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return Status.BACKOFF;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof JDBCSinkException) {
+                throw (JDBCSinkException) ex.getCause();
+            }
+            throw new JDBCSinkException(ex.getCause());
+        }
+    }
+
+    /**
+     * Staging Merge 주기 실행 (실행 시점의 WriteConfig Merger 사용)
+     */
+    private void scheduleMerge() {
+        this.mergeExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat(this.getName() + "-merger-%d").setDaemon(true).build());
+        this.mergeExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                final StagingTableMerger merger = writeConfig.stagingMerger;
+                if (merger != null) {
+                    merger.run();
+                }
+            }
+        }, this.stagingMergeInterval, this.stagingMergeInterval, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public synchronized void start() {
         this.sinkCounter.start();
+        this.jdbcSinkCounter.start();
+        if (this.writeConfig.stagingMerger != null) {
+            scheduleMerge();
+        }
         super.start();
     }
 
     @Override
     public synchronized void stop() {
+        if (this.batchExecutor != null) {
+            // 진행 중인 배치는 DB/Flume Transaction 처리를 마치도록 기다린다
+            if (this.pendingBatch != null) {
+                try {
+                    awaitBatch(this.pendingBatch);
+                } catch (JDBCSinkException ex) {
+                    log.error("Exception on pending batch", ex);
+                }
+                this.pendingBatch = null;
+            }
+            this.batchExecutor.shutdown();
+            try {
+                if (!this.batchExecutor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    this.batchExecutor.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                this.batchExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            this.batchExecutor = null;
+        }
+        if (this.mergeExecutor != null) {
+            this.mergeExecutor.shutdown();
+            try {
+                if (!this.mergeExecutor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    this.mergeExecutor.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                this.mergeExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            this.mergeExecutor = null;
+            // 종료 전 Staging 테이블에 남은 Row Merge (실패 시 다음 기동 후 Merge)
+            if (this.writeConfig.stagingMerger != null) {
+                this.writeConfig.stagingMerger.mergeAll();
+            }
+        }
         this.sinkCounter.stop();
+        this.jdbcSinkCounter.stop();
         super.stop();
     }
 
@@ -202,4 +582,42 @@ public class JDBCSink extends AbstractSink implements Configurable {
         return events;
     }
 
+    /**
+     * 배치 처리에 사용되는 설정 묶음 (재설정 시 통째로 교체)
+     */
+    static class WriteConfig {
+
+        private static final long IDLE_POLL_MILLIS = 10L;
+
+        private final SQLDialect sqlDialect;
+        private final int batchsize;
+        private final QueryGenerator queryGenerator;
+        private final StagingTableMerger stagingMerger;
+
+        /*
+         * 이 설정으로 처리 중인 배치 수
+         */
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        WriteConfig(SQLDialect sqlDialect, int batchsize, QueryGenerator queryGenerator, StagingTableMerger stagingMerger) {
+            this.sqlDialect = sqlDialect;
+            this.batchsize = batchsize;
+            this.queryGenerator = queryGenerator;
+            this.stagingMerger = stagingMerger;
+        }
+
+        int getInFlight() {
+            return this.inFlight.get();
+        }
+
+        /**
+         * 이 설정으로 시작한 배치가 모두 끝날 때까지 대기 (교체된 이후에만 호출할 것)
+         */
+        void awaitIdle() throws InterruptedException {
+            while (this.inFlight.get() > 0) {
+                Thread.sleep(IDLE_POLL_MILLIS);
+            }
+        }
+    }
+
 }
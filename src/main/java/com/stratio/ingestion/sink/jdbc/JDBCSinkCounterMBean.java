@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+/**
+ * JMX view of {@link JDBCSinkCounter}.
+ */
+public interface JDBCSinkCounterMBean {
+
+    long getRowInsertCount();
+
+    long getMapTimeMicros();
+
+    long getInsertTimeMicros();
+
+    long getInsertRowsPerSecond();
+
+    long getStagingMergeSuccessCount();
+
+    long getStagingMergeFailureCount();
+
+    long getStagingRowLag();
+
+    boolean isSortByKey();
+
+    long getStartTime();
+
+    long getStopTime();
+
+    String getType();
+
+}
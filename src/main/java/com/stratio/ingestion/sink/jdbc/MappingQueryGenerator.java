@@ -17,6 +17,9 @@ package com.stratio.ingestion.sink.jdbc;
 
 import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +33,7 @@ import org.jooq.InsertSetMoreStep;
 import org.jooq.InsertSetStep;
 import org.jooq.Meta;
 import org.jooq.Table;
+import org.jooq.UniqueKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +56,12 @@ class MappingQueryGenerator implements QueryGenerator {
 
     private Table<?> table;
 
+    /*
+     * Custom Variable : Batch 정렬 기준 컬럼 (null 이면 정렬하지 않음)
+     * Clustered Index(PK) 순서로 Insert 하여 InnoDB Page Split 및 Lock 경합을 줄인다
+     */
+    private Comparator<Map<Field<?>, Object>> rowComparator;
+
     /*
      * Custom Variable : Log content splitter
      */
@@ -73,22 +83,88 @@ class MappingQueryGenerator implements QueryGenerator {
 	 * @param tableName
 	 */
     public MappingQueryGenerator(DSLContext dslContext, final String tableName) {
-        Meta meta = dslContext.meta();
+        this.table = findTable(dslContext.meta(), tableName);
+    }
 
-        for (Table<?> table : meta.getTables()) {
-            if (table.getName().equalsIgnoreCase(tableName)) {
-                this.table = table;
-                break;
+	/**
+	 * Desc : Constructor of MappingQueryGenerator.java class
+	 * 
+	 * @param dslContext
+	 * @param tableName
+	 * @param sortByKey 배치를 정렬 기준 컬럼 순서로 정렬하여 Insert
+	 * @param sortColumns 정렬 기준 컬럼 (비어 있으면 테이블의 Primary Key)
+	 */
+    public MappingQueryGenerator(DSLContext dslContext, final String tableName, boolean sortByKey, List<String> sortColumns) {
+        this(dslContext, tableName);
+
+        if (sortByKey) {
+            List<Field<?>> sortFields = new ArrayList<Field<?>>();
+            if (sortColumns == null || sortColumns.isEmpty()) {
+                UniqueKey<?> primaryKey = this.table.getPrimaryKey();
+                if (primaryKey == null) {
+                    throw new JDBCSinkException("Primary key not found: " + tableName);
+                }
+                sortFields.addAll(primaryKey.getFields());
+            } else {
+                for (String columnName : sortColumns) {
+                    Field<?> field = this.table.field(columnName);
+                    if (field == null) {
+                        throw new JDBCSinkException("Sort column not found: " + columnName);
+                    }
+                    sortFields.add(field);
+                }
             }
+            this.rowComparator = new RowComparator(sortFields);
+            log.info("Batch rows are sorted by {}", sortFields);
         }
-        if (this.table == null) {
-            throw new JDBCSinkException("Table not found: " + tableName);
+    }
+
+    /**
+     * DB Meta 정보에서 테이블 조회 (대소문자 무시)
+     *
+     * @param meta DB Meta
+     * @param tableName 테이블명
+     * @return 테이블
+     */
+    static Table<?> findTable(Meta meta, final String tableName) {
+        return findTable(meta.getTables(), tableName);
+    }
+
+    /**
+     * 조회된 테이블 목록에서 테이블 조회 (대소문자 무시)
+     * 여러 테이블을 찾을 때 Meta 조회를 반복하지 않기 위해 사용
+     *
+     * @param tables {@link Meta#getTables()} 결과
+     * @param tableName 테이블명
+     * @return 테이블
+     */
+    static Table<?> findTable(List<Table<?>> tables, final String tableName) {
+        for (Table<?> table : tables) {
+            if (table.getName().equalsIgnoreCase(tableName)) {
+                return table;
+            }
         }
+        throw new JDBCSinkException("Table not found: " + tableName);
+    }
+
+    Table<?> getTable() {
+        return this.table;
     }
 
     public boolean executeQuery(DSLContext dslContext, final List<Event> events) {
-        InsertSetStep<?> insert = dslContext.insertInto(this.table);
-        int mappedEvents = 0;
+        return executeMapped(dslContext, mapEvents(events));
+    }
+
+    /**
+     * Event Body 파싱 및 컬럼 매핑 (DB 접근 없음)
+     * 정렬 기준 컬럼이 설정된 경우 해당 컬럼 순서로 정렬된다
+     * Double buffering 모드에서는 이전 배치의 DB 처리와 병행하여 수행된다
+     *
+     * @param events Flume events
+     * @return 매핑된 Row 목록 (매핑된 컬럼이 없는 Event는 제외)
+     */
+    public List<Map<Field<?>, Object>> mapEvents(final List<Event> events) {
+        List<Map<Field<?>, Object>> rows = new ArrayList<Map<Field<?>, Object>>(events.size());
         for (Event event : events) {
             Map<Field<?>, Object> fieldValues = new HashMap<Field<?>, Object>();
             /**
@@ -116,17 +192,64 @@ class MappingQueryGenerator implements QueryGenerator {
             if (fieldValues.isEmpty()) {
                 log.debug("Ignoring event, no mapped fields.");
             } else {
-                mappedEvents++;
-                if (insert instanceof InsertSetMoreStep) {
-                    insert = ((InsertSetMoreStep<?>) insert).newRecord();
-                    insert = (InsertSetStep<?>)insert.set(fieldValues);
-                }
+                rows.add(fieldValues);
+            }
+        }
+        sortRows(rows);
+        return rows;
+    }
+
+    /**
+     * @return 정렬 기준 컬럼이 설정되어 있으면 true
+     */
+    public boolean isSortByKey() {
+        return this.rowComparator != null;
+    }
+
+    /**
+     * 매핑된 Row 목록을 정렬 기준 컬럼 순서로 정렬 (정렬 기준 컬럼이 없으면 무시)
+     * 여러 배치를 모아 한번에 Insert 하는 경우 (ex. Backfill) 전체를 다시 정렬할 때 사용
+     *
+     * @param rows {@link #mapEvents(List)} 결과
+     */
+    public void sortRows(final List<Map<Field<?>, Object>> rows) {
+        if (this.rowComparator != null) {
+            Collections.sort(rows, this.rowComparator);
+        }
+    }
+
+    /**
+     * 매핑된 Row 목록을 Multi-row Insert 구문으로 실행
+     *
+     * @param dslContext DSLContext
+     * @param rows {@link #mapEvents(List)} 결과
+     * @return Insert 건수가 매핑 건수와 일치하면 true
+     */
+    public boolean executeMapped(DSLContext dslContext, final List<Map<Field<?>, Object>> rows) {
+        return executeMapped(dslContext, this.table, rows);
+    }
+
+    /**
+     * 매핑된 Row 목록을 지정한 테이블(ex. Staging 테이블)에 Multi-row Insert 구문으로 실행
+     * 대상 테이블은 매핑 테이블과 동일한 컬럼명을 가져야 한다
+     *
+     * @param dslContext DSLContext
+     * @param into Insert 대상 테이블
+     * @param rows {@link #mapEvents(List)} 결과
+     * @return Insert 건수가 매핑 건수와 일치하면 true
+     */
+    public boolean executeMapped(DSLContext dslContext, final Table<?> into, final List<Map<Field<?>, Object>> rows) {
+        InsertSetStep<?> insert = dslContext.insertInto(into);
+        for (Map<Field<?>, Object> fieldValues : rows) {
+            if (insert instanceof InsertSetMoreStep) {
+                insert = ((InsertSetMoreStep<?>) insert).newRecord();
+                insert = (InsertSetStep<?>)insert.set(fieldValues);
             }
         }
         if (insert instanceof InsertSetMoreStep) {
             int result = ((InsertSetMoreStep<?>) insert).execute();
-            if (result != mappedEvents) {
-                log.warn("Mapped {} events, inserted {}.", mappedEvents, result);
+            if (result != rows.size()) {
+                log.warn("Mapped {} events, inserted {}.", rows.size(), result);
                 return false;
             }
         } else {
@@ -135,4 +258,47 @@ class MappingQueryGenerator implements QueryGenerator {
         return true;
     }
 
+    /**
+     * 정렬 기준 컬럼 값으로 Row 비교 (값이 없는 Row가 앞쪽)
+     */
+    static class RowComparator implements Comparator<Map<Field<?>, Object>> {
+
+        private final List<Field<?>> fields;
+
+        /**
+         * @param fields 정렬 기준 컬럼 (Comparable 타입이어야 함, ex. BINARY/VARBINARY 불가)
+         */
+        RowComparator(List<Field<?>> fields) {
+            for (Field<?> field : fields) {
+                if (!Comparable.class.isAssignableFrom(field.getDataType().getType())) {
+                    throw new JDBCSinkException("Sort column not comparable: " + field.getName() + " (" + field.getDataType().getType().getName() + ")");
+                }
+            }
+            this.fields = fields;
+        }
+
+        @Override
+        @SuppressWarnings( "unchecked" )
+        public int compare(Map<Field<?>, Object> o1, Map<Field<?>, Object> o2) {
+            for (Field<?> field : this.fields) {
+                Object v1 = o1.get(field);
+                Object v2 = o2.get(field);
+                if (v1 == v2) {
+                    continue;
+                }
+                if (v1 == null) {
+                    return -1;
+                }
+                if (v2 == null) {
+                    return 1;
+                }
+                int result = ((Comparable<Object>) v1).compareTo(v2);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+    }
+
 }
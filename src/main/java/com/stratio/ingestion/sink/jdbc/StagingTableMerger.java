@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.JDBCUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <PRE>
+ * 커스텀: Staging 테이블에 적재된 Row를 최종 테이블로 INSERT ... SELECT 하는 Background Merger
+ *
+ * - Sink는 현재 활성(active) Staging 테이블에만 Insert 한다.
+ * - Staging 테이블이 2개 이상이면 Merge 주기마다 활성 테이블을 다음 테이블로 교체(rotate)한 다음,
+ *   더 이상 Insert가 없는 이전 테이블을 Merge 한다. (Merge 중 Sink Insert와 Lock 경합 없음)
+ * - Staging 테이블이 1개이면 Merge 동안 Sink Insert를 잠시 멈춘다.
+ * - INSERT ... SELECT 와 DELETE 를 하나의 DB Transaction으로 Commit 하므로
+ *   Staging 테이블에 남아 있는 Row가 곧 Merge 되지 않은 Row 이다. (장애 시 유실/중복 없음)
+ *   단, 이를 위해 Staging 테이블은 Transaction을 지원해야 한다. (ex. Secondary Index 없는 InnoDB)
+ *   MEMORY 테이블은 DB 재시작 시 내용이 사라지므로 유실을 감수할 수 있는 경우에만 사용할 것.
+ * - 재기동 시 이전에 Merge 되지 못한 Row는 해당 테이블이 교체될 때 함께 Merge 된다.
+ * - Merge가 연속으로 실패하거나(ex. 최종 테이블 제약조건 위반) Merge 대기 Row가 한도를 넘으면
+ *   Sink는 BACKOFF 하여 Event를 Channel에 남겨 둔다. (Staging 테이블 무한 적체 방지)
+ * - Merge 대기 Row 수는 Staging 테이블 별로 집계하며, 재설정 시 같은 DB의 같은 Staging 테이블은
+ *   이전 Merger와 집계를 공유한다. (이전 Merger가 Merge 한 Row가 새 Merger에 중복 집계되지 않음)
+ * </PRE>
+ *
+ * @see       JDBCSink
+ */
+class StagingTableMerger implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(StagingTableMerger.class);
+
+    private final SQLDialect sqlDialect;
+    private final Table<?> table;
+    private final List<Table<?>> stagingTables;
+    private final List<Field<?>[]> stagingColumns;
+    private final List<Field<?>[]> tableColumns;
+
+    /*
+     * Sink의 DB 처리 구간 Lock (활성 테이블 교체 시 진행 중인 Insert가 없음을 보장)
+     */
+    private final Object writeLock;
+
+    private volatile int active;
+
+    /*
+     * Backpressure: 연속 Merge 실패 횟수 또는 Merge 대기 Row 수가 한도를 넘으면 Sink는 Channel에서 Take 하지 않는다
+     */
+    private final JDBCSinkCounter counter;
+    private final int maxMergeFailures;
+    private final long maxStagedRows;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final List<AtomicLong> stagedRows;
+
+    /*
+     * 재설정으로 교체된 경우 새 Merger (Merge 대기 Row 수 지표는 새 Merger 기준으로 갱신)
+     */
+    private volatile boolean retired;
+    private volatile StagingTableMerger successor;
+
+	/**
+	 * Desc : Constructor of StagingTableMerger.java class
+	 *
+	 * @param dslContext DSLContext (Meta 조회 및 Merge 대기 Row 수 집계)
+	 * @param sqlDialect SQL Dialect
+	 * @param table 최종 테이블
+	 * @param stagingTableNames Staging 테이블명 목록 (최종 테이블과 동일한 컬럼명, Index 최소화)
+	 * @param writeLock Sink의 DB 처리 구간 Lock
+	 * @param counter Merge 성공/실패 및 대기 Row 수 지표
+	 * @param maxMergeFailures Backpressure 기준 연속 Merge 실패 횟수
+	 * @param maxStagedRows Backpressure 기준 Merge 대기 Row 수
+	 * @param previous 같은 DB를 사용하던 이전 Merger (없으면 null)
+	 */
+    public StagingTableMerger(DSLContext dslContext, SQLDialect sqlDialect, Table<?> table, List<String> stagingTableNames, Object writeLock,
+            JDBCSinkCounter counter, int maxMergeFailures, long maxStagedRows, StagingTableMerger previous) {
+        // Meta 조회는 1회
+        this(dslContext, dslContext.meta().getTables(), sqlDialect, table, stagingTableNames, writeLock, counter, maxMergeFailures, maxStagedRows,
+                previous);
+    }
+
+    /**
+     * @param tables Staging 테이블을 찾을 테이블 목록 (Meta 조회 결과)
+     */
+    StagingTableMerger(DSLContext dslContext, List<Table<?>> tables, SQLDialect sqlDialect, Table<?> table, List<String> stagingTableNames,
+            Object writeLock, JDBCSinkCounter counter, int maxMergeFailures, long maxStagedRows, StagingTableMerger previous) {
+        if (stagingTableNames.isEmpty()) {
+            throw new JDBCSinkException("Staging table is required");
+        }
+        this.sqlDialect = sqlDialect;
+        this.table = table;
+        this.writeLock = writeLock;
+        this.counter = counter;
+        this.maxMergeFailures = maxMergeFailures;
+        this.maxStagedRows = maxStagedRows;
+        this.stagingTables = new ArrayList<Table<?>>();
+        this.stagingColumns = new ArrayList<Field<?>[]>();
+        this.tableColumns = new ArrayList<Field<?>[]>();
+        this.stagedRows = new ArrayList<AtomicLong>();
+
+        for (String stagingTableName : stagingTableNames) {
+            Table<?> stagingTable = MappingQueryGenerator.findTable(tables, stagingTableName);
+            // 최종 테이블과 이름이 같은 컬럼만 Merge 대상 (ex. 최종 테이블의 AUTO_INCREMENT 컬럼 제외)
+            List<Field<?>> from = new ArrayList<Field<?>>();
+            List<Field<?>> into = new ArrayList<Field<?>>();
+            for (Field<?> field : stagingTable.fields()) {
+                Field<?> target = table.field(field.getName());
+                if (target != null) {
+                    from.add(field);
+                    into.add(target);
+                }
+            }
+            if (from.isEmpty()) {
+                throw new JDBCSinkException("No common columns: " + stagingTableName + ", " + table.getName());
+            }
+            this.stagingTables.add(stagingTable);
+            this.stagingColumns.add(from.toArray(new Field<?>[from.size()]));
+            this.tableColumns.add(into.toArray(new Field<?>[into.size()]));
+
+            // 이전 Merger와 같은 테이블이면 집계 공유, 아니면 이전 기동 시 Merge 되지 못한 Row 수로 시작
+            AtomicLong rows = previous == null ? null : previous.stagedRowsOf(stagingTable.getName());
+            if (rows == null) {
+                rows = new AtomicLong(dslContext.fetchCount(stagingTable));
+            }
+            this.stagedRows.add(rows);
+        }
+        this.counter.setStagingRowLag(getStagedRows());
+    }
+
+    private AtomicLong stagedRowsOf(String stagingTableName) {
+        for (int i = 0; i < this.stagingTables.size(); i++) {
+            if (this.stagingTables.get(i).getName().equalsIgnoreCase(stagingTableName)) {
+                return this.stagedRows.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Merge 대기 Row 수 (모든 Staging 테이블 합계)
+     */
+    public long getStagedRows() {
+        long rows = 0;
+        for (AtomicLong tableRows : this.stagedRows) {
+            rows += tableRows.get();
+        }
+        return rows;
+    }
+
+    /**
+     * 재설정으로 교체됨 (이후 Merge 대기 Row 수 지표는 새 Merger 기준으로 갱신)
+     *
+     * @param successor 새 Merger (Staging 모드 해제 시 null)
+     */
+    public void retire(StagingTableMerger successor) {
+        this.successor = successor;
+        this.retired = true;
+    }
+
+    private void updateStagingRowLag() {
+        StagingTableMerger current = this;
+        while (current.retired && current.successor != null) {
+            current = current.successor;
+        }
+        this.counter.setStagingRowLag(current.getStagedRows());
+    }
+
+    /**
+     * Sink가 Insert 할 활성 Staging 테이블
+     * 반드시 Sink의 writeLock 안에서 호출할 것
+     *
+     * @return 활성 Staging 테이블
+     */
+    public Table<?> getActiveTable() {
+        return this.stagingTables.get(this.active);
+    }
+
+    /**
+     * Staging 테이블 Insert Commit 후 호출 (Sink의 writeLock 안에서 호출할 것)
+     *
+     * @param rows Insert 된 Row 수
+     */
+    public void addStagedRows(long rows) {
+        this.stagedRows.get(this.active).addAndGet(rows);
+        updateStagingRowLag();
+    }
+
+    /**
+     * @return 연속 Merge 실패 횟수 또는 Merge 대기 Row 수가 한도 이상이면 true
+     */
+    public boolean isBackpressured() {
+        return this.consecutiveFailures.get() >= this.maxMergeFailures || getStagedRows() >= this.maxStagedRows;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (this.stagingTables.size() == 1) {
+                synchronized (this.writeLock) {
+                    merge(0);
+                }
+            } else {
+                final int retired;
+                synchronized (this.writeLock) {
+                    retired = this.active;
+                    this.active = (retired + 1) % this.stagingTables.size();
+                }
+                merge(retired);
+            }
+        } catch (Throwable t) {
+            // 실패한 Row는 Staging 테이블에 남아 다음 Merge 시 재처리 된다
+            log.error("Exception during staging merge ({} consecutive failures)", this.consecutiveFailures.get(), t);
+        }
+    }
+
+    /**
+     * 활성 테이블을 포함한 모든 Staging 테이블 Merge (Sink 종료 시)
+     */
+    public void mergeAll() {
+        synchronized (this.writeLock) {
+            for (int i = 0; i < this.stagingTables.size(); i++) {
+                try {
+                    merge(i);
+                } catch (Exception ex) {
+                    log.error("Exception during staging merge", ex);
+                }
+            }
+        }
+    }
+
+    private void merge(int index) throws Exception {
+        final Table<?> stagingTable = this.stagingTables.get(index);
+        Connection connection = null;
+        try {
+            connection = ConnectionManager.instance.getConnection();
+            final DSLContext create = DSL.using(connection, this.sqlDialect);
+
+            final int merged = create.insertInto(this.table, this.tableColumns.get(index))
+                    .select(create.select(this.stagingColumns.get(index)).from(stagingTable))
+                    .execute();
+            final int deleted = create.delete(stagingTable).execute();
+            if (merged != deleted) {
+                throw new JDBCSinkException("Staging merge mismatch: " + stagingTable.getName() + " merged " + merged + ", deleted " + deleted);
+            }
+
+            connection.commit();
+            this.consecutiveFailures.set(0);
+            this.counter.incrementStagingMergeSuccessCount();
+            this.stagedRows.get(index).addAndGet(-merged);
+            updateStagingRowLag();
+            log.debug("Merged {} rows from {}", merged, stagingTable.getName());
+        } catch (Exception ex) {
+            this.consecutiveFailures.incrementAndGet();
+            this.counter.incrementStagingMergeFailureCount();
+            try {
+                if (connection != null) {
+                    connection.rollback();
+                }
+            } catch (Exception e) {
+                log.error("Exception on rollback", e);
+            }
+            throw ex;
+        } finally {
+            JDBCUtils.safeClose( connection );
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.flume.Context;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConnectionManagerTest {
+
+    private static final long RETIRE_WAIT_MILLIS = 5000L;
+
+    @Test
+    public void keepsPoolWhenConfigurationUnchanged() {
+        ConnectionManager.instance.initialize(context("jdbc:mock:unchanged", "3"));
+        final BasicDataSource datasource = ConnectionManager.instance.getDatasource();
+
+        ConnectionManager.instance.initialize(context("jdbc:mock:unchanged", "3"));
+
+        assertSame(datasource, ConnectionManager.instance.getDatasource());
+    }
+
+    @Test
+    public void retiresReplacedPoolAfterConnectionReturned() throws Exception {
+        ConnectionManager.instance.initialize(context("jdbc:mock:retire", "3"));
+        final BasicDataSource old = ConnectionManager.instance.getDatasource();
+        final Connection connection = ConnectionManager.instance.getConnection();
+
+        ConnectionManager.instance.initialize(context("jdbc:mock:retire", "4"));
+        assertNotSame(old, ConnectionManager.instance.getDatasource());
+
+        // 대여 중인 Connection은 계속 사용 가능하고 기존 Pool은 종료되지 않는다
+        Thread.sleep(300);
+        assertFalse(isClosed(old));
+        connection.commit();
+
+        connection.close();
+        final long deadline = System.currentTimeMillis() + RETIRE_WAIT_MILLIS;
+        while (!isClosed(old) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(isClosed(old));
+    }
+
+    @Test
+    public void keepsPoolWhenReinitializeFails() {
+        ConnectionManager.instance.initialize(context("jdbc:mock:failure", "3"));
+        final BasicDataSource datasource = ConnectionManager.instance.getDatasource();
+
+        try {
+            ConnectionManager.instance.initialize(context("jdbc:unknown:failure", "3"));
+            fail("JDBCSinkException expected");
+        } catch (JDBCSinkException ex) {
+            // expected
+        }
+
+        assertSame(datasource, ConnectionManager.instance.getDatasource());
+    }
+
+    @Test
+    public void borrowsWhileSwappingPools() throws Exception {
+        ConnectionManager.instance.initialize(context("jdbc:mock:swap", "2"));
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch started = new CountDownLatch(4);
+        List<Thread> borrowers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread borrower = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    while (running.get()) {
+                        try {
+                            Connection connection = ConnectionManager.instance.getConnection();
+                            connection.commit();
+                            connection.close();
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                    }
+                }
+            });
+            borrower.start();
+            borrowers.add(borrower);
+        }
+
+        started.await();
+        for (int i = 0; i < 20; i++) {
+            ConnectionManager.instance.initialize(context("jdbc:mock:swap", String.valueOf(2 + i % 2)));
+            Thread.sleep(10);
+        }
+        running.set(false);
+        for (Thread borrower : borrowers) {
+            borrower.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    static Context context(String connectionString, String maxActive) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("driver", MockDriver.class.getName());
+        parameters.put("connectionString", connectionString);
+        parameters.put("dbcp.maxActive", maxActive);
+        parameters.put("dbcp.maxWait", "1000");
+        return new Context(parameters);
+    }
+
+    private static boolean isClosed(BasicDataSource datasource) {
+        try {
+            datasource.getConnection().close();
+            return false;
+        } catch (SQLException ex) {
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.flume.Event;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JDBCBackfillTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void splitAlignsChunksToLines() throws IOException {
+        File file = write("SEQ_ID=1|LOG_TYPE=CSE\nSEQ_ID=2|LOG_TYPE=CSE\nSEQ_ID=3|LOG_TYPE=CSE\nSEQ_ID=4|LOG_TYPE=CSE\n");
+
+        List<JDBCBackfill.Chunk> chunks = JDBCBackfill.split(file, 30);
+
+        assertEquals(2, chunks.size());
+        assertEquals(Arrays.asList("SEQ_ID=1|LOG_TYPE=CSE", "SEQ_ID=2|LOG_TYPE=CSE"), lines(file, chunks.get(0)));
+        assertEquals(Arrays.asList("SEQ_ID=3|LOG_TYPE=CSE", "SEQ_ID=4|LOG_TYPE=CSE"), lines(file, chunks.get(1)));
+        assertEquals(file.length(), chunks.get(1).getEnd());
+    }
+
+    @Test
+    public void splitKeepsLastLineWithoutNewline() throws IOException {
+        File file = write("aaa\nbbb\nccc");
+
+        List<JDBCBackfill.Chunk> chunks = JDBCBackfill.split(file, 4);
+
+        assertEquals(3, chunks.size());
+        assertEquals(Arrays.asList("aaa"), lines(file, chunks.get(0)));
+        assertEquals(Arrays.asList("bbb"), lines(file, chunks.get(1)));
+        assertEquals(Arrays.asList("ccc"), lines(file, chunks.get(2)));
+    }
+
+    @Test
+    public void splitKeepsLineLongerThanChunkSize() throws IOException {
+        File file = write("0123456789\nx\n");
+
+        List<JDBCBackfill.Chunk> chunks = JDBCBackfill.split(file, 3);
+
+        assertEquals(2, chunks.size());
+        assertEquals(0, chunks.get(0).getStart());
+        assertEquals(11, chunks.get(0).getEnd());
+        assertEquals(Arrays.asList("0123456789"), lines(file, chunks.get(0)));
+        assertEquals(Arrays.asList("x"), lines(file, chunks.get(1)));
+    }
+
+    @Test
+    public void splitCoversEveryLineOnce() throws IOException {
+        StringBuilder content = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            String line = "SEQ_ID=" + i + "|LOG_TIME=20150730140458";
+            expected.add(line);
+            content.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        File file = write(content.toString());
+
+        List<String> actual = new ArrayList<String>();
+        for (JDBCBackfill.Chunk chunk : JDBCBackfill.split(file, 100)) {
+            actual.addAll(lines(file, chunk));
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void splitEmptyFile() throws IOException {
+        assertEquals(0, JDBCBackfill.split(write(""), 10).size());
+    }
+
+    @Test
+    public void readEventsStripsCarriageReturnAndSkipsEmptyLines() {
+        List<Event> events = JDBCBackfill.readEvents(ByteBuffer.wrap("a\r\n\r\n\nb\r\n\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(Arrays.asList("a", "b"), bodies(events));
+    }
+
+    @Test
+    public void pendingSkipsCompletedChunks() throws IOException {
+        File file = write("aaa\nbbb\nccc\n");
+        List<JDBCBackfill.Chunk> chunks = JDBCBackfill.split(file, 4);
+        assertEquals(3, chunks.size());
+
+        List<JDBCBackfill.Chunk> pending = JDBCBackfill.pending(chunks, Collections.singleton(chunks.get(1).key()));
+
+        assertEquals(2, pending.size());
+        assertSame(chunks.get(0), pending.get(0));
+        assertSame(chunks.get(2), pending.get(1));
+    }
+
+    @Test
+    public void pendingMatchesChunksOfSameSplit() throws IOException {
+        File file = write("aaa\nbbb\nccc\n");
+        List<String> completed = new ArrayList<String>();
+        for (JDBCBackfill.Chunk chunk : JDBCBackfill.split(file, 4)) {
+            completed.add(chunk.key());
+        }
+
+        assertEquals(0, JDBCBackfill.pending(JDBCBackfill.split(file, 4), new HashSet<String>(completed)).size());
+        assertEquals(1, JDBCBackfill.pending(JDBCBackfill.split(file, 100), new HashSet<String>(completed)).size());
+    }
+
+    @Test
+    public void chunkKeyIsFixedLengthAndIndependentOfPath() throws IOException {
+        File original = write(folder.newFolder("a"), "hist.log", "aaa\nbbb\nccc\n");
+        File moved = write(folder.newFolder("b"), "hist.log", "aaa\nbbb\nccc\n");
+        List<JDBCBackfill.Chunk> originalChunks = JDBCBackfill.split(original, 4);
+        List<JDBCBackfill.Chunk> movedChunks = JDBCBackfill.split(moved, 4);
+
+        for (JDBCBackfill.Chunk chunk : originalChunks) {
+            assertTrue(chunk.key().matches("[0-9a-f]{40}"));
+        }
+        assertEquals(3, new HashSet<String>(keys(originalChunks)).size());
+        assertEquals(keys(originalChunks), keys(movedChunks));
+    }
+
+    @Test
+    public void chunkKeyDiffersForDifferentContent() throws IOException {
+        File first = write(folder.newFolder("a"), "hist.log", "aaa\nbbb\n");
+        File second = write(folder.newFolder("b"), "hist.log", "aaa\nbbc\n");
+
+        assertFalse(JDBCBackfill.split(first, 100).get(0).key().equals(JDBCBackfill.split(second, 100).get(0).key()));
+    }
+
+    private static List<String> keys(List<JDBCBackfill.Chunk> chunks) {
+        List<String> keys = new ArrayList<String>();
+        for (JDBCBackfill.Chunk chunk : chunks) {
+            keys.add(chunk.key());
+        }
+        return keys;
+    }
+
+    private static File write(File directory, String name, String content) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private File write(String content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private List<String> lines(File file, JDBCBackfill.Chunk chunk) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(content, (int) chunk.getStart(), (int) (chunk.getEnd() - chunk.getStart())).slice();
+        return bodies(JDBCBackfill.readEvents(buffer));
+    }
+
+    private List<String> bodies(List<Event> events) {
+        List<String> bodies = new ArrayList<String>();
+        for (Event event : events) {
+            bodies.add(new String(event.getBody(), StandardCharsets.UTF_8));
+        }
+        return bodies;
+    }
+
+}
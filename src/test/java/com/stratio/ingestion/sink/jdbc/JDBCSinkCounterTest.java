@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JDBCSinkCounterTest {
+
+    @Test
+    public void insertRowsPerSecondWithoutElapsedTime() {
+        JDBCSinkCounter counter = new JDBCSinkCounter("counterTest", false);
+        counter.addToRowInsertCount(100);
+
+        assertEquals(0, counter.getInsertRowsPerSecond());
+    }
+
+    @Test
+    public void insertRowsPerSecondCountsMapAndInsertTime() {
+        JDBCSinkCounter counter = new JDBCSinkCounter("counterTest", true);
+        counter.addToRowInsertCount(1000);
+        counter.addToMapTimeNanos(TimeUnit.MILLISECONDS.toNanos(200));
+        counter.addToInsertTimeNanos(TimeUnit.MILLISECONDS.toNanos(300));
+
+        assertEquals(1000, counter.getRowInsertCount());
+        assertEquals(200000, counter.getMapTimeMicros());
+        assertEquals(300000, counter.getInsertTimeMicros());
+        assertEquals(2000, counter.getInsertRowsPerSecond());
+    }
+
+    @Test
+    public void subMillisecondBatchesAreCounted() {
+        JDBCSinkCounter counter = new JDBCSinkCounter("counterTest", true);
+        for (int i = 0; i < 1000; i++) {
+            counter.addToRowInsertCount(20);
+            counter.addToMapTimeNanos(150000);
+            counter.addToInsertTimeNanos(850000);
+        }
+
+        assertEquals(150000, counter.getMapTimeMicros());
+        assertEquals(850000, counter.getInsertTimeMicros());
+        assertEquals(20000, counter.getInsertRowsPerSecond());
+    }
+
+    @Test
+    public void stagingMergeCountsAndLag() {
+        JDBCSinkCounter counter = new JDBCSinkCounter("counterTest", false);
+        counter.incrementStagingMergeSuccessCount();
+        counter.incrementStagingMergeFailureCount();
+        counter.incrementStagingMergeFailureCount();
+        counter.setStagingRowLag(500);
+        counter.setStagingRowLag(120);
+
+        assertEquals(1, counter.getStagingMergeSuccessCount());
+        assertEquals(2, counter.getStagingMergeFailureCount());
+        assertEquals(120, counter.getStagingRowLag());
+    }
+
+    @Test
+    public void sortByKeyFollowsConfiguration() {
+        JDBCSinkCounter counter = new JDBCSinkCounter("counterTest", true);
+        assertTrue(counter.isSortByKey());
+
+        counter.setSortByKey(false);
+        assertFalse(counter.isSortByKey());
+    }
+
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.SQLDialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Charsets;
+
+@RunWith(JUnit4.class)
+public class JDBCSinkDoubleBufferTest {
+
+    private static final int BATCHES = 6;
+
+    private final List<String> steps = Collections.synchronizedList(new ArrayList<String>());
+
+    private JDBCSink sink;
+
+    @Before
+    public void setUp() {
+        Context ctx = new Context();
+        ctx.put("driver", MockDriver.class.getName());
+        ctx.put("connectionString", "jdbc:mock:doublebuffer");
+        ctx.put("sqlDialect", "MARIADB");
+        ctx.put("batchSize", "1");
+        ctx.put("doubleBuffer", "true");
+        ctx.put("sql", "INSERT INTO T (BODY) VALUES (${body:varchar})");
+
+        this.sink = new JDBCSink();
+        this.sink.setName("doublebuffer");
+        Configurables.configure(this.sink, ctx);
+    }
+
+    @After
+    public void tearDown() {
+        MockDriver.onCommit = null;
+    }
+
+    @Test
+    public void commitsDatabaseBeforeChannelOnEachBatchThread() throws Exception {
+        MockDriver.onCommit = new Runnable() {
+            @Override
+            public void run() {
+                record("db-commit");
+            }
+        };
+
+        Channel channel = mock(Channel.class);
+        when(channel.take()).thenReturn(EventBuilder.withBody("body", Charsets.UTF_8));
+        when(channel.getTransaction()).thenAnswer(new Answer<Transaction>() {
+            @Override
+            public Transaction answer(InvocationOnMock invocation) {
+                Transaction transaction = mock(Transaction.class);
+                doAnswer(new Answer<Void>() {
+                    @Override
+                    public Void answer(InvocationOnMock invocation) {
+                        record("tx-commit");
+                        return null;
+                    }
+                }).when(transaction).commit();
+                return transaction;
+            }
+        });
+        this.sink.setChannel(channel);
+
+        QueryGenerator generator = mock(QueryGenerator.class);
+        when(generator.executeQuery(any(DSLContext.class), anyListOf(Event.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                record("execute");
+                return true;
+            }
+        });
+        this.sink.swapWriteConfig(new JDBCSink.WriteConfig(SQLDialect.MARIADB, 1, generator, null));
+
+        this.sink.start();
+        for (int i = 0; i < BATCHES; i++) {
+            this.sink.process();
+        }
+        this.sink.stop();
+
+        // 배치 Thread 별로 DB Commit 후 Flume Transaction Commit
+        Map<String, List<String>> byThread = new LinkedHashMap<String, List<String>>();
+        int executed = 0;
+        synchronized (this.steps) {
+            for (String step : this.steps) {
+                final String[] parts = step.split("@", 2);
+                if (!byThread.containsKey(parts[1])) {
+                    byThread.put(parts[1], new ArrayList<String>());
+                }
+                byThread.get(parts[1]).add(parts[0]);
+                if ("execute".equals(parts[0])) {
+                    executed++;
+                }
+            }
+        }
+        assertEquals(BATCHES, executed);
+        for (Map.Entry<String, List<String>> entry : byThread.entrySet()) {
+            final List<String> threadSteps = entry.getValue();
+            assertEquals(entry.getKey(), 0, threadSteps.size() % 3);
+            for (int i = 0; i < threadSteps.size(); i += 3) {
+                assertEquals(entry.getKey(), "execute", threadSteps.get(i));
+                assertEquals(entry.getKey(), "db-commit", threadSteps.get(i + 1));
+                assertEquals(entry.getKey(), "tx-commit", threadSteps.get(i + 2));
+            }
+        }
+    }
+
+    @Test
+    public void failedBatchesStayInChannel() throws Exception {
+        Channel channel = new MemoryChannel();
+        channel.setName("doublebufferChannel");
+        Configurables.configure(channel, new Context());
+        channel.start();
+
+        Transaction tx = channel.getTransaction();
+        tx.begin();
+        for (int i = 0; i < 3; i++) {
+            channel.put(EventBuilder.withBody("body" + i, Charsets.UTF_8));
+        }
+        tx.commit();
+        tx.close();
+
+        QueryGenerator generator = mock(QueryGenerator.class);
+        when(generator.executeQuery(any(DSLContext.class), anyListOf(Event.class))).thenReturn(false);
+        this.sink.swapWriteConfig(new JDBCSink.WriteConfig(SQLDialect.MARIADB, 1, generator, null));
+        this.sink.setChannel(channel);
+
+        this.sink.start();
+        for (int i = 0; i < 3; i++) {
+            this.sink.process();
+        }
+        this.sink.stop();
+
+        tx = channel.getTransaction();
+        tx.begin();
+        int remaining = 0;
+        while (channel.take() != null) {
+            remaining++;
+        }
+        tx.commit();
+        tx.close();
+        channel.stop();
+
+        assertEquals(3, remaining);
+    }
+
+    @Test
+    public void nextBatchIsTakenAndMappedWhileDatabaseBusy() throws Exception {
+        final CountDownLatch dbGate = new CountDownLatch(1);
+        MappingQueryGenerator generator = mappingGenerator(null, dbGate);
+        useMockChannel(generator);
+
+        this.sink.start();
+        try {
+            this.sink.process();
+            Thread second = processInBackground();
+
+            // 첫 배치가 DB 처리 구간에 머무는 동안 두번째 배치는 Take/파싱을 마친다
+            awaitStep("insert@doublebuffer-batch-0");
+            awaitStep("map@doublebuffer-batch-1");
+            assertFalse(snapshot().contains("insert@doublebuffer-batch-1"));
+
+            dbGate.countDown();
+            second.join(5000);
+        } finally {
+            dbGate.countDown();
+            this.sink.stop();
+        }
+        assertTrue(snapshot().contains("insert@doublebuffer-batch-1"));
+    }
+
+    @Test
+    public void batchesReachDatabaseInStartOrder() throws Exception {
+        final CountDownLatch mapGate = new CountDownLatch(1);
+        MappingQueryGenerator generator = mappingGenerator(mapGate, null);
+        useMockChannel(generator);
+
+        this.sink.start();
+        try {
+            this.sink.process();
+            Thread second = processInBackground();
+
+            // 두번째 배치가 먼저 파싱을 마쳐도 첫 배치보다 먼저 Insert 하지 않는다
+            awaitStep("map@doublebuffer-batch-1");
+            Thread.sleep(200);
+            assertEquals(Arrays.asList("map@doublebuffer-batch-1"), snapshot());
+
+            mapGate.countDown();
+            second.join(5000);
+        } finally {
+            mapGate.countDown();
+            this.sink.stop();
+        }
+        List<String> inserts = new ArrayList<String>();
+        for (String step : snapshot()) {
+            if (step.startsWith("insert")) {
+                inserts.add(step);
+            }
+        }
+        assertEquals(Arrays.asList("insert@doublebuffer-batch-0", "insert@doublebuffer-batch-1"), inserts);
+    }
+
+    /**
+     * 첫 배치(batch-0 Thread)만 mapGate/dbGate 에서 대기하는 자동 매핑 Generator
+     */
+    @SuppressWarnings("unchecked")
+    private MappingQueryGenerator mappingGenerator(final CountDownLatch mapGate, final CountDownLatch dbGate) {
+        MappingQueryGenerator generator = mock(MappingQueryGenerator.class);
+        when(generator.mapEvents(anyListOf(Event.class))).thenAnswer(new Answer<List<Map<Field<?>, Object>>>() {
+            @Override
+            public List<Map<Field<?>, Object>> answer(InvocationOnMock invocation) throws Throwable {
+                if (mapGate != null && isFirstBatch()) {
+                    mapGate.await();
+                }
+                record("map");
+                return new ArrayList<Map<Field<?>, Object>>();
+            }
+        });
+        when(generator.executeMapped(any(DSLContext.class), any(List.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                record("insert");
+                if (dbGate != null && isFirstBatch()) {
+                    dbGate.await();
+                }
+                return true;
+            }
+        });
+        return generator;
+    }
+
+    private void useMockChannel(QueryGenerator generator) {
+        Channel channel = mock(Channel.class);
+        when(channel.getTransaction()).thenReturn(mock(Transaction.class));
+        when(channel.take()).thenReturn(EventBuilder.withBody("body", Charsets.UTF_8));
+        this.sink.setChannel(channel);
+        this.sink.swapWriteConfig(new JDBCSink.WriteConfig(SQLDialect.MARIADB, 1, generator, null));
+    }
+
+    private Thread processInBackground() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sink.process();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitStep(String step) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!snapshot().contains(step)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(step + " not reached: " + snapshot());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private List<String> snapshot() {
+        synchronized (this.steps) {
+            return new ArrayList<String>(this.steps);
+        }
+    }
+
+    private static boolean isFirstBatch() {
+        return Thread.currentThread().getName().endsWith("-batch-0");
+    }
+
+    private void record(String step) {
+        this.steps.add(step + "@" + Thread.currentThread().getName());
+    }
+
+}
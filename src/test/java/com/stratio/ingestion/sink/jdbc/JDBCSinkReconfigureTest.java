@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Charsets;
+
+@RunWith(JUnit4.class)
+public class JDBCSinkReconfigureTest {
+
+    private static final String SQL = "INSERT INTO T (BODY) VALUES (${body:varchar})";
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private JDBCSink sink;
+    private Thread batch;
+
+    @Before
+    public void setUp() {
+        this.sink = new JDBCSink();
+        this.sink.setName("reconfigure");
+        Configurables.configure(this.sink, context("jdbc:mock:reconfigure", SQL));
+
+        Channel channel = mock(Channel.class);
+        when(channel.getTransaction()).thenReturn(mock(Transaction.class));
+        when(channel.take()).thenReturn(EventBuilder.withBody("body", Charsets.UTF_8));
+        this.sink.setChannel(channel);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.release.countDown();
+        if (this.batch != null) {
+            this.batch.join();
+        }
+    }
+
+    @Test
+    public void inFlightBatchKeepsConfigurationUntilDone() throws Exception {
+        final QueryGenerator generatorA = blockingGenerator();
+        final QueryGenerator generatorB = mock(QueryGenerator.class);
+        when(generatorB.executeQuery(any(DSLContext.class), anyListOf(Event.class))).thenReturn(true);
+        final JDBCSink.WriteConfig configA = new JDBCSink.WriteConfig(SQLDialect.MARIADB, 1, generatorA, null);
+        final JDBCSink.WriteConfig configB = new JDBCSink.WriteConfig(SQLDialect.MARIADB, 1, generatorB, null);
+        this.sink.swapWriteConfig(configA);
+
+        startBatch();
+        this.sink.swapWriteConfig(configB);
+        assertEquals(1, configA.getInFlight());
+
+        this.release.countDown();
+        this.batch.join();
+        assertEquals(0, configA.getInFlight());
+        verify(generatorA).executeQuery(any(DSLContext.class), anyListOf(Event.class));
+        verify(generatorB, never()).executeQuery(any(DSLContext.class), anyListOf(Event.class));
+
+        // 다음 배치부터 새 설정 사용
+        this.sink.process();
+        verify(generatorB).executeQuery(any(DSLContext.class), anyListOf(Event.class));
+        assertEquals(0, configB.getInFlight());
+    }
+
+    @Test
+    public void retiredStagingMergedAfterInFlightBatch() throws Exception {
+        final StagingTableMerger mergerA = mock(StagingTableMerger.class);
+        final JDBCSink.WriteConfig configA = new JDBCSink.WriteConfig(SQLDialect.MARIADB, 1, blockingGenerator(), mergerA);
+        final JDBCSink.WriteConfig configB = new JDBCSink.WriteConfig(SQLDialect.MARIADB, 1, mock(QueryGenerator.class), null);
+        this.sink.swapWriteConfig(configA);
+        this.sink.start();
+        try {
+            startBatch();
+            this.sink.swapWriteConfig(configB);
+
+            // 이전 설정으로 시작한 배치가 끝나기 전에는 Merge 하지 않는다
+            Thread.sleep(200);
+            verify(mergerA, never()).mergeAll();
+
+            this.release.countDown();
+            verify(mergerA, timeout(5000)).mergeAll();
+        } finally {
+            this.release.countDown();
+            this.sink.stop();
+        }
+    }
+
+    @Test
+    public void reloadSwapsPoolAndMappingTogether() {
+        final BasicDataSource datasource = ConnectionManager.instance.getDatasource();
+        final JDBCSink.WriteConfig config = this.sink.getWriteConfig();
+
+        Configurables.configure(this.sink, context("jdbc:mock:reconfigure-next", SQL));
+
+        assertNotSame(datasource, ConnectionManager.instance.getDatasource());
+        assertNotSame(config, this.sink.getWriteConfig());
+    }
+
+    @Test
+    public void invalidReloadKeepsPoolAndMapping() {
+        final BasicDataSource datasource = ConnectionManager.instance.getDatasource();
+        final JDBCSink.WriteConfig config = this.sink.getWriteConfig();
+
+        Context ctx = context("jdbc:mock:reconfigure-invalid", SQL);
+        ctx.put("sortByKey", "true");
+        try {
+            Configurables.configure(this.sink, ctx);
+            fail("JDBCSinkException expected");
+        } catch (JDBCSinkException ex) {
+            // expected
+        }
+
+        assertSame(datasource, ConnectionManager.instance.getDatasource());
+        assertSame(config, this.sink.getWriteConfig());
+    }
+
+    @Test
+    public void failedMappingKeepsPoolAndMapping() {
+        final BasicDataSource datasource = ConnectionManager.instance.getDatasource();
+        final JDBCSink.WriteConfig config = this.sink.getWriteConfig();
+
+        // Mock Connection은 Meta 정보가 없으므로 자동 매핑 생성이 실패한다
+        Context ctx = context("jdbc:mock:reconfigure-mapping", null);
+        ctx.put("table", "T");
+        try {
+            Configurables.configure(this.sink, ctx);
+            fail("Mapping failure expected");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+
+        assertSame(datasource, ConnectionManager.instance.getDatasource());
+        assertSame(config, this.sink.getWriteConfig());
+    }
+
+    private static Context context(String connectionString, String sql) {
+        Context ctx = new Context();
+        ctx.put("driver", MockDriver.class.getName());
+        ctx.put("connectionString", connectionString);
+        ctx.put("sqlDialect", "MARIADB");
+        ctx.put("batchSize", "1");
+        if (sql != null) {
+            ctx.put("sql", sql);
+        }
+        return ctx;
+    }
+
+    private QueryGenerator blockingGenerator() {
+        final QueryGenerator generator = mock(QueryGenerator.class);
+        when(generator.executeQuery(any(DSLContext.class), anyListOf(Event.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                entered.countDown();
+                release.await();
+                return true;
+            }
+        });
+        return generator;
+    }
+
+    private void startBatch() throws InterruptedException {
+        this.batch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sink.process();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        this.batch.start();
+        if (!this.entered.await(5, TimeUnit.SECONDS)) {
+            throw new AssertionError("batch not started");
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockDataProvider;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * JDBC driver for tests without a database. Every connection is a Mockito mock;
+ * {@link #onCommit} and {@link #onRollback} are run on each {@link Connection#commit()}
+ * and {@link Connection#rollback()}, and statements are answered by {@link #provider} when set.
+ */
+public class MockDriver implements Driver {
+
+    static final String URL_PREFIX = "jdbc:mock:";
+
+    static volatile Runnable onCommit;
+
+    static volatile Runnable onRollback;
+
+    static volatile MockDataProvider provider;
+
+    static {
+        try {
+            DriverManager.registerDriver(new MockDriver());
+        } catch (SQLException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        Connection connection = mock(Connection.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                run(onCommit);
+                return null;
+            }
+        }).when(connection).commit();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                run(onRollback);
+                return null;
+            }
+        }).when(connection).rollback();
+
+        // provider가 설정되어 있으면 호출 시점의 provider로 Statement 응답
+        final Answer<Object> statement = new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final MockDataProvider data = provider;
+                if (data == null) {
+                    return null;
+                }
+                try {
+                    return invocation.getMethod().invoke(new MockConnection(data), invocation.getArguments());
+                } catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+            }
+        };
+        doAnswer(statement).when(connection).prepareStatement(anyString());
+        doAnswer(statement).when(connection).prepareStatement(anyString(), anyInt());
+        doAnswer(statement).when(connection).createStatement();
+        return connection;
+    }
+
+    private static void run(Runnable listener) {
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jooq.Field;
+import org.jooq.impl.DSL;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RowComparatorTest {
+
+    private final Field<String> logTime = DSL.field("LOG_TIME", String.class);
+    private final Field<Long> seqId = DSL.field("SEQ_ID", Long.class);
+
+    @Test
+    public void sortsByColumnsInOrder() {
+        List<Map<Field<?>, Object>> rows = new ArrayList<Map<Field<?>, Object>>();
+        rows.add(row("20150730140459", 1L));
+        rows.add(row("20150730140458", 2L));
+        rows.add(row("20150730140458", 1L));
+
+        Collections.sort(rows, new MappingQueryGenerator.RowComparator(Arrays.<Field<?>>asList(logTime, seqId)));
+
+        assertEquals(row("20150730140458", 1L), rows.get(0));
+        assertEquals(row("20150730140458", 2L), rows.get(1));
+        assertEquals(row("20150730140459", 1L), rows.get(2));
+    }
+
+    @Test
+    public void sortsMissingValuesFirst() {
+        List<Map<Field<?>, Object>> rows = new ArrayList<Map<Field<?>, Object>>();
+        rows.add(row("20150730140458", 2L));
+        rows.add(row(null, 3L));
+        rows.add(row("20150730140458", null));
+
+        Collections.sort(rows, new MappingQueryGenerator.RowComparator(Arrays.<Field<?>>asList(logTime, seqId)));
+
+        assertEquals(row(null, 3L), rows.get(0));
+        assertEquals(row("20150730140458", null), rows.get(1));
+        assertEquals(row("20150730140458", 2L), rows.get(2));
+    }
+
+    @Test
+    public void rejectsNotComparableColumn() {
+        try {
+            new MappingQueryGenerator.RowComparator(Arrays.<Field<?>>asList(DSL.field("UUID", byte[].class)));
+        } catch (JDBCSinkException ex) {
+            assertTrue(ex.getMessage().startsWith("Sort column not comparable: UUID"));
+            return;
+        }
+        throw new AssertionError("JDBCSinkException expected");
+    }
+
+    private Map<Field<?>, Object> row(String logTimeValue, Long seqIdValue) {
+        Map<Field<?>, Object> row = new HashMap<Field<?>, Object>();
+        if (logTimeValue != null) {
+            row.put(logTime, logTimeValue);
+        }
+        if (seqIdValue != null) {
+            row.put(seqId, seqIdValue);
+        }
+        return row;
+    }
+
+}
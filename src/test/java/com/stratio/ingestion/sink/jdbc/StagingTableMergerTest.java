@@ -0,0 +1,422 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.ingestion.sink.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Sink.Status;
+import org.apache.flume.conf.Configurables;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.jooq.impl.TableImpl;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockDataProvider;
+import org.jooq.tools.jdbc.MockExecuteContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StagingTableMergerTest {
+
+    private final TestTable finalTable = new TestTable("HIST", true);
+    private final TestTable staging1 = new TestTable("HIST_STG1", false);
+    private final TestTable staging2 = new TestTable("HIST_STG2", false);
+    private final List<Table<?>> catalog = Arrays.<Table<?>>asList(finalTable, staging1, staging2);
+
+    private final StagingDatabase database = new StagingDatabase();
+    private final Object writeLock = new Object();
+    private final JDBCSinkCounter counter = new JDBCSinkCounter("stagingTest", false);
+
+    @Before
+    public void setUp() {
+        ConnectionManager.instance.initialize(ConnectionManagerTest.context("jdbc:mock:staging", "3"));
+        MockDriver.provider = this.database;
+        MockDriver.onCommit = new Runnable() {
+            @Override
+            public void run() {
+                database.commit();
+            }
+        };
+        MockDriver.onRollback = new Runnable() {
+            @Override
+            public void run() {
+                database.rollback();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        MockDriver.provider = null;
+        MockDriver.onCommit = null;
+        MockDriver.onRollback = null;
+    }
+
+    @Test
+    public void seedsLagWithRowsLeftInStaging() {
+        this.database.rows("HIST_STG1", 3);
+        this.database.rows("HIST_STG2", 4);
+
+        StagingTableMerger merger = merger(Arrays.asList("HIST_STG1", "HIST_STG2"), 3, 100);
+
+        assertEquals(7, this.counter.getStagingRowLag());
+        assertFalse(merger.isBackpressured());
+    }
+
+    @Test
+    public void rotatesActiveTableAndMergesRetiredTable() {
+        StagingTableMerger merger = merger(Arrays.asList("HIST_STG1", "HIST_STG2"), 3, 100);
+        assertSame(this.staging1, merger.getActiveTable());
+        stage(merger, "HIST_STG1", 5);
+
+        merger.run();
+
+        assertSame(this.staging2, merger.getActiveTable());
+        assertEquals(5, this.database.rows("HIST"));
+        assertEquals(0, this.database.rows("HIST_STG1"));
+        assertEquals(0, this.counter.getStagingRowLag());
+        assertEquals(1, this.counter.getStagingMergeSuccessCount());
+
+        stage(merger, "HIST_STG2", 2);
+        merger.run();
+
+        assertSame(this.staging1, merger.getActiveTable());
+        assertEquals(7, this.database.rows("HIST"));
+        assertEquals(0, this.database.rows("HIST_STG2"));
+    }
+
+    @Test
+    public void rotationWaitsForWriteLock() throws Exception {
+        final StagingTableMerger merger = merger(Arrays.asList("HIST_STG1", "HIST_STG2"), 3, 100);
+        Thread merge = new Thread(merger);
+
+        synchronized (this.writeLock) {
+            merge.start();
+            Thread.sleep(200);
+            // Sink가 DB 처리 중이면 활성 테이블을 바꾸지 않는다
+            assertSame(this.staging1, merger.getActiveTable());
+        }
+        merge.join(5000);
+
+        assertSame(this.staging2, merger.getActiveTable());
+    }
+
+    @Test
+    public void mergeMismatchRollsBackAndKeepsRowsStaged() {
+        StagingTableMerger merger = merger(Arrays.asList("HIST_STG1"), 3, 100);
+        stage(merger, "HIST_STG1", 5);
+        this.database.deleteSurplus = 1;
+
+        merger.run();
+
+        assertEquals(0, this.database.rows("HIST"));
+        assertEquals(5, this.database.rows("HIST_STG1"));
+        assertEquals(5, this.counter.getStagingRowLag());
+        assertEquals(1, this.counter.getStagingMergeFailureCount());
+        assertEquals(0, this.counter.getStagingMergeSuccessCount());
+    }
+
+    @Test
+    public void consecutiveFailuresBackpressureUntilMergeSucceeds() {
+        StagingTableMerger merger = merger(Arrays.asList("HIST_STG1"), 2, 100);
+        stage(merger, "HIST_STG1", 5);
+        this.database.failInsert = true;
+
+        merger.run();
+        assertFalse(merger.isBackpressured());
+        merger.run();
+        assertTrue(merger.isBackpressured());
+        assertEquals(5, this.database.rows("HIST_STG1"));
+
+        this.database.failInsert = false;
+        merger.run();
+
+        assertFalse(merger.isBackpressured());
+        assertEquals(5, this.database.rows("HIST"));
+        assertEquals(0, this.counter.getStagingRowLag());
+    }
+
+    @Test
+    public void stagedRowsBackpressureAtLimit() {
+        this.database.rows("HIST_STG1", 3);
+        StagingTableMerger merger = merger(Arrays.asList("HIST_STG1"), 3, 5);
+        assertFalse(merger.isBackpressured());
+
+        stage(merger, "HIST_STG1", 2);
+
+        assertTrue(merger.isBackpressured());
+        assertEquals(5, this.counter.getStagingRowLag());
+    }
+
+    @Test
+    public void mergeAllMergesEveryTable() {
+        StagingTableMerger merger = merger(Arrays.asList("HIST_STG1", "HIST_STG2"), 3, 100);
+        stage(merger, "HIST_STG1", 5);
+        this.database.rows("HIST_STG2", 4);
+
+        merger.mergeAll();
+
+        assertEquals(9, this.database.rows("HIST"));
+        assertEquals(0, this.database.rows("HIST_STG1"));
+        assertEquals(0, this.database.rows("HIST_STG2"));
+    }
+
+    @Test
+    public void reloadWithPendingRowsDoesNotInflateLag() {
+        final List<String> stagingTableNames = Arrays.asList("HIST_STG1", "HIST_STG2");
+        StagingTableMerger current = merger(stagingTableNames, 3, 10);
+        stage(current, "HIST_STG1", 4);
+
+        for (int i = 0; i < 5; i++) {
+            // 재설정: 새 Merger 생성 후 이전 Merger는 진행 중인 배치가 끝난 다음 전체 Merge
+            StagingTableMerger next = merger(stagingTableNames, 3, 10, current);
+            current.retire(next);
+            stage(next, "HIST_STG1", 4);
+            current.mergeAll();
+
+            assertEquals(0, next.getStagedRows());
+            assertEquals(0, this.counter.getStagingRowLag());
+            assertFalse(next.isBackpressured());
+            current = next;
+        }
+        assertEquals(24, this.database.rows("HIST"));
+    }
+
+    @Test
+    public void reloadWithFewerTablesSharesRemainingTableCount() {
+        StagingTableMerger current = merger(Arrays.asList("HIST_STG1", "HIST_STG2"), 3, 100);
+        stage(current, "HIST_STG1", 3);
+
+        StagingTableMerger next = merger(Arrays.asList("HIST_STG1"), 3, 100, current);
+        current.retire(next);
+        assertEquals(3, next.getStagedRows());
+
+        current.mergeAll();
+
+        assertEquals(0, next.getStagedRows());
+        assertEquals(0, this.counter.getStagingRowLag());
+        assertEquals(3, this.database.rows("HIST"));
+    }
+
+    @Test
+    public void retiredMergerWithoutSuccessorReportsOwnLag() {
+        StagingTableMerger current = merger(Arrays.asList("HIST_STG1"), 3, 100);
+        stage(current, "HIST_STG1", 3);
+
+        current.retire(null);
+        assertEquals(3, this.counter.getStagingRowLag());
+        current.mergeAll();
+
+        assertEquals(0, this.counter.getStagingRowLag());
+    }
+
+    @Test
+    public void sinkBacksOffWithoutTakingWhenBackpressured() {
+        StagingTableMerger merger = mock(StagingTableMerger.class);
+        when(merger.isBackpressured()).thenReturn(true);
+        JDBCSink sink = sink(merger);
+        Channel channel = mock(Channel.class);
+        sink.setChannel(channel);
+
+        assertEquals(Status.BACKOFF, sink.process());
+
+        verify(channel, never()).getTransaction();
+        verify(channel, never()).take();
+    }
+
+    @Test
+    public void sinkMergesAllOnStop() {
+        StagingTableMerger merger = mock(StagingTableMerger.class);
+        JDBCSink sink = sink(merger);
+        sink.setChannel(mock(Channel.class));
+
+        sink.start();
+        sink.stop();
+
+        verify(merger).mergeAll();
+    }
+
+    private StagingTableMerger merger(List<String> stagingTableNames, int maxMergeFailures, long maxStagedRows) {
+        return merger(stagingTableNames, maxMergeFailures, maxStagedRows, null);
+    }
+
+    private StagingTableMerger merger(List<String> stagingTableNames, int maxMergeFailures, long maxStagedRows, StagingTableMerger previous) {
+        return new StagingTableMerger(DSL.using(new MockConnection(this.database), SQLDialect.MARIADB), this.catalog, SQLDialect.MARIADB,
+                this.finalTable, stagingTableNames, this.writeLock, this.counter, maxMergeFailures, maxStagedRows, previous);
+    }
+
+    /**
+     * Sink의 Staging 테이블 Insert Commit
+     */
+    private void stage(StagingTableMerger merger, String stagingTableName, int rows) {
+        synchronized (this.writeLock) {
+            this.database.rows(stagingTableName, this.database.rows(stagingTableName) + rows);
+            merger.addStagedRows(rows);
+        }
+    }
+
+    private static JDBCSink sink(StagingTableMerger merger) {
+        Context ctx = new Context();
+        ctx.put("driver", MockDriver.class.getName());
+        ctx.put("connectionString", "jdbc:mock:staging");
+        ctx.put("dbcp.maxActive", "3");
+        ctx.put("dbcp.maxWait", "1000");
+        ctx.put("sqlDialect", "MARIADB");
+        ctx.put("sql", "INSERT INTO T (BODY) VALUES (${body:varchar})");
+
+        JDBCSink sink = new JDBCSink();
+        sink.setName("stagingSink");
+        Configurables.configure(sink, ctx);
+        sink.swapWriteConfig(new JDBCSink.WriteConfig(SQLDialect.MARIADB, 1, mock(QueryGenerator.class), merger));
+        return sink;
+    }
+
+    /**
+     * 최종/Staging 테이블 (Staging 테이블에는 AUTO_INCREMENT ID 컬럼 없음)
+     */
+    static class TestTable extends TableImpl<Record> {
+
+        private static final long serialVersionUID = 1L;
+
+        TestTable(String name, boolean withId) {
+            super(name);
+            createField("BODY", SQLDataType.VARCHAR, this);
+            if (withId) {
+                createField("ID", SQLDataType.BIGINT, this);
+            }
+        }
+    }
+
+    /**
+     * SELECT COUNT(*) 결과
+     */
+    static class CountTable extends TableImpl<Record> {
+
+        private static final long serialVersionUID = 1L;
+
+        final TableField<Record, Integer> count = createField("COUNT", SQLDataType.INTEGER, this);
+
+        CountTable() {
+            super("COUNT");
+        }
+    }
+
+    /**
+     * 테이블별 Row 수만 관리하는 Transaction 지원 가짜 DB
+     * INSERT ... SELECT / DELETE 결과는 Commit 시 반영되고 Rollback 시 버려진다
+     */
+    static class StagingDatabase implements MockDataProvider {
+
+        private static final CountTable COUNT = new CountTable();
+        private static final Pattern FROM = Pattern.compile("from [`\"]?(\\w+)");
+        private static final Pattern INTO = Pattern.compile("^insert into [`\"]?(\\w+)[`\"]?");
+
+        private final Map<String, Integer> committed = new HashMap<String, Integer>();
+        private final Map<String, Integer> pending = new HashMap<String, Integer>();
+
+        volatile boolean failInsert;
+        volatile int deleteSurplus;
+
+        synchronized int rows(String table) {
+            final Integer rows = this.committed.get(table);
+            return rows == null ? 0 : rows;
+        }
+
+        synchronized void rows(String table, int rows) {
+            this.committed.put(table, rows);
+        }
+
+        synchronized void commit() {
+            this.committed.putAll(this.pending);
+            this.pending.clear();
+        }
+
+        synchronized void rollback() {
+            this.pending.clear();
+        }
+
+        @Override
+        public synchronized MockResult[] execute(MockExecuteContext ctx) throws SQLException {
+            final String sql = ctx.sql().toLowerCase(Locale.ENGLISH).trim();
+            final String from = find(FROM, sql);
+            final int staged = current(from);
+
+            if (sql.startsWith("select count")) {
+                DSLContext create = DSL.using(SQLDialect.MARIADB);
+                Result<Record> result = create.newResult(COUNT);
+                Record record = create.newRecord(COUNT);
+                record.setValue(COUNT.count, staged);
+                result.add(record);
+                return new MockResult[] { new MockResult(1, result) };
+            }
+            if (sql.startsWith("insert")) {
+                if (this.failInsert) {
+                    throw new SQLException("Duplicate entry");
+                }
+                final String into = find(INTO, sql);
+                this.pending.put(into, current(into) + staged);
+                return new MockResult[] { new MockResult(staged, null) };
+            }
+            if (sql.startsWith("delete")) {
+                this.pending.put(from, 0);
+                return new MockResult[] { new MockResult(staged + this.deleteSurplus, null) };
+            }
+            throw new SQLException("Unexpected statement: " + sql);
+        }
+
+        private int current(String table) {
+            if (table == null) {
+                return 0;
+            }
+            final Integer rows = this.pending.containsKey(table) ? this.pending.get(table) : this.committed.get(table);
+            return rows == null ? 0 : rows;
+        }
+
+        private static String find(Pattern pattern, String sql) {
+            final Matcher m = pattern.matcher(sql);
+            return m.find() ? m.group(1).toUpperCase(Locale.ENGLISH) : null;
+        }
+    }
+
+}